@@ -766,6 +766,12 @@ public final class Config {
         public final ForgeConfigSpec.BooleanValue mSmartSDFShaders;
         public final ForgeConfigSpec.BooleanValue mComputeDeviceFontSize;
         public final ForgeConfigSpec.BooleanValue mAllowSDFTextIn2D;
+        public final ForgeConfigSpec.BooleanValue mBatchWorldText;
+        public final ForgeConfigSpec.IntValue mWorldTextDistance;
+        public final ForgeConfigSpec.DoubleValue mWorldTextLodOutline;
+        public final ForgeConfigSpec.DoubleValue mWorldTextLodEffect;
+        public final ForgeConfigSpec.DoubleValue mWorldTextLodSilhouette;
+        public final ForgeConfigSpec.DoubleValue mWorldTextLodCull;
 
         //private final ForgeConfigSpec.BooleanValue antiAliasing;
         //private final ForgeConfigSpec.BooleanValue highPrecision;
@@ -886,6 +892,29 @@ public final class Config {
                             "Otherwise, it uses nearest-neighbor or bilinear sampling based on texel density.",
                             "This option only applies to TrueType fonts.")
                     .define("allowSDFTextIn2D", true);
+            mBatchWorldText = builder.comment(
+                            "Collect nameplates and signs drawn during entity rendering and draw them together,",
+                            "sorted by render type and depth. This reduces draw calls in busy scenes.")
+                    .define("batchWorldText", true);
+            mWorldTextDistance = builder.comment(
+                            "The max distance in blocks to draw batched text in 3D world, 0 means no limit.")
+                    .defineInRange("worldTextDistance", 0, 0, 1024);
+            builder.comment("Level of detail for batched text in 3D world.",
+                            "Each value is a projected line height in screen pixels, 0 disables the level.")
+                    .push("worldTextLod");
+            mWorldTextLodOutline = builder.comment(
+                            "Below this size, the glowing outline of signs is not drawn.")
+                    .defineInRange("outline", 6.0, 0.0, 64.0);
+            mWorldTextLodEffect = builder.comment(
+                            "Below this size, underline and strikethrough are not drawn.")
+                    .defineInRange("effect", 4.0, 0.0, 64.0);
+            mWorldTextLodSilhouette = builder.comment(
+                            "Below this size, a translucent block is drawn instead of glyphs.")
+                    .defineInRange("silhouette", 2.0, 0.0, 64.0);
+            mWorldTextLodCull = builder.comment(
+                            "Below this size, the text is not drawn.")
+                    .defineInRange("cull", 0.5, 0.0, 64.0);
+            builder.pop();
             /*antiAliasing = builder.comment(
                     "Enable font anti-aliasing.")
                     .define("antiAliasing", true);
@@ -965,6 +994,12 @@ public final class Config {
 
             ModernTextRenderer.sComputeDeviceFontSize = mComputeDeviceFontSize.get();
             ModernTextRenderer.sAllowSDFTextIn2D = mAllowSDFTextIn2D.get();
+            WorldTextBatcher.sEnabled = mBatchWorldText.get();
+            WorldTextBatcher.sMaxDistance = mWorldTextDistance.get();
+            WorldTextBatcher.sLodOutlineSize = mWorldTextLodOutline.get().floatValue();
+            WorldTextBatcher.sLodEffectSize = mWorldTextLodEffect.get().floatValue();
+            WorldTextBatcher.sLodSilhouetteSize = mWorldTextLodSilhouette.get().floatValue();
+            WorldTextBatcher.sLodCullSize = mWorldTextLodCull.get().floatValue();
 
             if (reloadStrike) {
                 Minecraft.getInstance().submit(
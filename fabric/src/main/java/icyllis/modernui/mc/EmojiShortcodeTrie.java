@@ -0,0 +1,176 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package icyllis.modernui.mc;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * A prefix trie of emoji shortcodes, immutable after creation. Shortcodes can be
+ * looked up from a range of text without creating substrings, and shortcodes with
+ * a given prefix can be listed in alphabetical order for suggestions.
+ *
+ * @see FontResourceManager#lookupEmojiShortcode(String)
+ */
+public final class EmojiShortcodeTrie {
+
+    public static final EmojiShortcodeTrie EMPTY = new EmojiShortcodeTrie(Collections.emptyMap());
+
+    // node 0 is the root, children of a node are linked in ascending order
+    private final char[] mChars;
+    private final int[] mFirstChild;
+    private final int[] mNextSibling;
+    // emoji sequence if the path from root is a shortcode
+    private final String[] mValues;
+    private final int mSize;
+    private final int mMaxLength;
+
+    public EmojiShortcodeTrie(@Nonnull Map<String, String> shortcodes) {
+        // sorted, so children are appended in ascending order
+        var keys = shortcodes.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        int capacity = 1;
+        int maxLength = 0;
+        for (String key : keys) {
+            capacity += key.length();
+            maxLength = Math.max(maxLength, key.length());
+        }
+        char[] chars = new char[capacity];
+        int[] firstChild = new int[capacity];
+        int[] nextSibling = new int[capacity];
+        String[] values = new String[capacity];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        int count = 1;
+        for (String key : keys) {
+            int node = 0;
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                // the last child is the largest, since keys are sorted
+                int child = firstChild[node];
+                int last = -1;
+                while (child >= 0 && chars[child] != c) {
+                    last = child;
+                    child = nextSibling[child];
+                }
+                if (child < 0) {
+                    child = count++;
+                    chars[child] = c;
+                    if (last < 0) {
+                        firstChild[node] = child;
+                    } else {
+                        nextSibling[last] = child;
+                    }
+                }
+                node = child;
+            }
+            values[node] = shortcodes.get(key);
+        }
+        mChars = Arrays.copyOf(chars, count);
+        mFirstChild = Arrays.copyOf(firstChild, count);
+        mNextSibling = Arrays.copyOf(nextSibling, count);
+        mValues = Arrays.copyOf(values, count);
+        mSize = keys.length;
+        mMaxLength = maxLength;
+    }
+
+    /**
+     * @return the number of shortcodes
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the length of the longest shortcode
+     */
+    public int getMaxLength() {
+        return mMaxLength;
+    }
+
+    // returns the node of the given path, or -1
+    private int find(@Nonnull CharSequence s, int start, int end) {
+        int node = 0;
+        for (int i = start; i < end && node >= 0; i++) {
+            char c = s.charAt(i);
+            int child = mFirstChild[node];
+            while (child >= 0 && mChars[child] < c) {
+                child = mNextSibling[child];
+            }
+            node = child >= 0 && mChars[child] == c ? child : -1;
+        }
+        return node;
+    }
+
+    /**
+     * Lookup the emoji sequence of a shortcode.
+     *
+     * @param s     the text containing the shortcode, without colons
+     * @param start the start index of the shortcode (inclusive)
+     * @param end   the end index of the shortcode (exclusive)
+     * @return the emoji sequence, or null
+     */
+    @Nullable
+    public String get(@Nonnull CharSequence s, int start, int end) {
+        int node = find(s, start, end);
+        return node > 0 ? mValues[node] : null;
+    }
+
+    @Nullable
+    public String get(@Nonnull String shortcode) {
+        return get(shortcode, 0, shortcode.length());
+    }
+
+    /**
+     * List shortcodes starting with the given prefix in alphabetical order.
+     *
+     * @param prefix the prefix
+     * @param limit  the maximum number of results
+     * @param dst    receives shortcodes
+     */
+    public void suggest(@Nonnull CharSequence prefix, int limit, @Nonnull List<String> dst) {
+        int node = find(prefix, 0, prefix.length());
+        if (node < 0 || limit <= 0) {
+            return;
+        }
+        var sb = new StringBuilder(mMaxLength).append(prefix);
+        collect(node, sb, limit, dst);
+    }
+
+    // pre-order traversal, returns the remaining limit
+    private int collect(int node, StringBuilder sb, int limit, List<String> dst) {
+        if (mValues[node] != null && node > 0) {
+            dst.add(sb.toString());
+            if (--limit == 0) {
+                return 0;
+            }
+        }
+        for (int child = mFirstChild[node]; child >= 0; child = mNextSibling[child]) {
+            sb.append(mChars[child]);
+            limit = collect(child, sb, limit, dst);
+            sb.setLength(sb.length() - 1);
+            if (limit == 0) {
+                return 0;
+            }
+        }
+        return limit;
+    }
+}
@@ -313,6 +313,11 @@ public abstract class ModernUIClient extends ModernUI {
     @Nonnull
     @Override
     public InputStream getResourceStream(@Nonnull String namespace, @Nonnull String path) throws IOException {
+        // emoji data read asynchronously
+        InputStream stream = FontResourceManager.takeEmojiData(namespace, path);
+        if (stream != null) {
+            return stream;
+        }
         return Minecraft.getInstance().getResourceManager().open(new ResourceLocation(namespace, path));
     }
 
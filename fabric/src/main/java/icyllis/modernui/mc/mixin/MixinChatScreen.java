@@ -19,20 +19,29 @@
 package icyllis.modernui.mc.mixin;
 
 import icyllis.modernui.mc.*;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.EditBox;
 import net.minecraft.client.gui.screens.ChatScreen;
+import net.minecraft.client.gui.screens.Screen;
+import net.minecraft.network.chat.Component;
+import org.lwjgl.glfw.GLFW;
 import org.spongepowered.asm.mixin.*;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
-import java.util.regex.Matcher;
+import java.util.ArrayList;
 
 /**
- * Transform emoji shortcodes.
+ * Transform emoji shortcodes, and suggest shortcodes while typing.
  */
 @Mixin(ChatScreen.class)
-public class MixinChatScreen {
+public abstract class MixinChatScreen extends Screen {
+
+    @Unique
+    private static final int MAX_SUGGESTIONS = 5;
 
     @Shadow
     protected EditBox input;
@@ -40,36 +49,163 @@ public class MixinChatScreen {
     @Unique
     private boolean modernUI_MC$broadcasting;
 
+    // the input after the last edit, to find the edited range
+    @Unique
+    private String modernUI_MC$lastValue = "";
+
+    @Unique
+    private final ArrayList<String> modernUI_MC$suggestions = new ArrayList<>();
+    // index after the colon of the shortcode being typed
+    @Unique
+    private int modernUI_MC$suggestionStart;
+    @Unique
+    private String modernUI_MC$suggestionValue;
+    @Unique
+    private int modernUI_MC$suggestionCursor = -1;
+
+    protected MixinChatScreen(Component title) {
+        super(title);
+    }
+
     @Inject(method = "onEdited", at = @At("HEAD"))
     private void _onEdited(String s, CallbackInfo ci) {
-        if (!modernUI_MC$broadcasting &&
-                Config.CLIENT.mEmojiShortcodes.get() &&
-                !input.getValue().startsWith("/") &&
+        if (modernUI_MC$broadcasting) {
+            return;
+        }
+        String value = input.getValue();
+        if (Config.CLIENT.mEmojiShortcodes.get() &&
+                !value.startsWith("/") &&
                 (!(input instanceof IModernEditBox) ||
                         !((IModernEditBox) input).modernUI_MC$getUndoManager().isInUndo())) {
-            final FontResourceManager manager = FontResourceManager.getInstance();
-            CYCLE:
-            for (;;) {
-                final Matcher matcher = MuiModApi.EMOJI_SHORTCODE_PATTERN.matcher(input.getValue());
-                while (matcher.find()) {
-                    int start = matcher.start();
-                    int end = matcher.end();
-                    if (end - start > 2) {
-                        String replacement = manager.lookupEmojiShortcode(
-                                input.getValue().substring(start + 1, end - 1)
-                        );
-                        if (replacement != null) {
-                            modernUI_MC$broadcasting = true;
-                            input.setHighlightPos(start);
-                            input.setCursorPosition(end);
-                            input.insertText(replacement);
-                            modernUI_MC$broadcasting = false;
-                            continue CYCLE;
-                        }
-                    }
-                }
+            // only shortcodes touching the edited range are replaced, the others
+            // have been checked in previous edits
+            final String lastValue = modernUI_MC$lastValue;
+            final int minLength = Math.min(lastValue.length(), value.length());
+            int prefix = 0;
+            while (prefix < minLength && lastValue.charAt(prefix) == value.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < minLength - prefix &&
+                    lastValue.charAt(lastValue.length() - 1 - suffix) ==
+                            value.charAt(value.length() - 1 - suffix)) {
+                suffix++;
+            }
+            value = modernUI_MC$replaceShortcodes(value, prefix, value.length() - suffix);
+        }
+        modernUI_MC$lastValue = value;
+    }
+
+    @Unique
+    private String modernUI_MC$replaceShortcodes(String value, int editStart, int editEnd) {
+        final EmojiShortcodeTrie shortcodes = FontResourceManager.getInstance().getEmojiShortcodes();
+        final int maxLength = shortcodes.getMaxLength();
+        if (maxLength == 0) {
+            return value;
+        }
+        // a shortcode touching the edited range starts at most (maxLength + 1) chars before it
+        int i = Math.max(0, editStart - maxLength - 1);
+        while (i < value.length()) {
+            final int start = value.indexOf(':', i);
+            if (start < 0 || start > editEnd) {
                 break;
             }
+            int end = start + 1;
+            while (end < value.length() && modernUI_MC$isShortcodeChar(value.charAt(end))) {
+                end++;
+            }
+            if (end < value.length() && value.charAt(end) == ':' &&
+                    end - start > 1 && end + 1 >= editStart) {
+                String replacement = shortcodes.get(value, start + 1, end);
+                if (replacement != null) {
+                    modernUI_MC$broadcasting = true;
+                    input.setHighlightPos(start);
+                    input.setCursorPosition(end + 1);
+                    input.insertText(replacement);
+                    modernUI_MC$broadcasting = false;
+                    final String newValue = input.getValue();
+                    editEnd += newValue.length() - value.length();
+                    value = newValue;
+                    i = start + replacement.length();
+                    continue;
+                }
+            }
+            // the closing colon may open the next shortcode
+            i = end;
+        }
+        return value;
+    }
+
+    @Unique
+    private static boolean modernUI_MC$isShortcodeChar(char c) {
+        // same as EMOJI_SHORTCODE_PATTERN
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '_' || c == '+' || c == '-';
+    }
+
+    @Unique
+    private void modernUI_MC$updateSuggestions() {
+        final String value = input.getValue();
+        final int cursor = input.getCursorPosition();
+        //noinspection StringEquality
+        if (value == modernUI_MC$suggestionValue && cursor == modernUI_MC$suggestionCursor) {
+            return;
+        }
+        modernUI_MC$suggestionValue = value;
+        modernUI_MC$suggestionCursor = cursor;
+        modernUI_MC$suggestions.clear();
+        if (!Config.CLIENT.mEmojiShortcodes.get() || value.startsWith("/")) {
+            return;
+        }
+        int start = cursor;
+        while (start > 0 && modernUI_MC$isShortcodeChar(value.charAt(start - 1))) {
+            start--;
+        }
+        // require 2 chars at least, like ':sm'
+        if (start == 0 || value.charAt(start - 1) != ':' || cursor - start < 2) {
+            return;
+        }
+        FontResourceManager.getInstance().getEmojiShortcodes()
+                .suggest(value.substring(start, cursor), MAX_SUGGESTIONS, modernUI_MC$suggestions);
+        modernUI_MC$suggestionStart = start;
+    }
+
+    @Inject(method = "render", at = @At("TAIL"))
+    private void _render(GuiGraphics gr, int mouseX, int mouseY, float deltaTick, CallbackInfo ci) {
+        modernUI_MC$updateSuggestions();
+        final var suggestions = modernUI_MC$suggestions;
+        if (suggestions.isEmpty()) {
+            return;
+        }
+        final var shortcodes = FontResourceManager.getInstance().getEmojiShortcodes();
+        final var font = Minecraft.getInstance().font;
+        final var lines = new String[suggestions.size()];
+        int width = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String shortcode = suggestions.get(i);
+            lines[i] = shortcodes.get(shortcode) + " :" + shortcode + ":";
+            width = Math.max(width, font.width(lines[i]));
+        }
+        final int x = 3;
+        final int bottom = height - 14;
+        final int top = bottom - 12 * lines.length;
+        gr.fill(x - 1, top - 1, x + width + 1, bottom, 0xD0000000);
+        for (int i = 0; i < lines.length; i++) {
+            // the first one is completed by TAB
+            gr.drawString(font, lines[i], x, top + 12 * i + 2, i == 0 ? 0xFFFFFF00 : 0xFFAAAAAA);
+        }
+    }
+
+    @Inject(method = "keyPressed", at = @At("HEAD"), cancellable = true)
+    private void _keyPressed(int keyCode, int scanCode, int modifiers, CallbackInfoReturnable<Boolean> cir) {
+        if (keyCode == GLFW.GLFW_KEY_TAB && !modernUI_MC$suggestions.isEmpty()) {
+            modernUI_MC$updateSuggestions();
+            if (!modernUI_MC$suggestions.isEmpty()) {
+                // complete the shortcode, then it will be replaced in onEdited()
+                input.setHighlightPos(modernUI_MC$suggestionStart);
+                input.insertText(modernUI_MC$suggestions.get(0) + ":");
+                cir.setReturnValue(true);
+            }
         }
     }
 }
@@ -0,0 +1,368 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import com.ibm.icu.text.Bidi;
+import com.ibm.icu.text.BreakIterator;
+import icyllis.modernui.ModernUI;
+import icyllis.modernui.annotation.RenderThread;
+import icyllis.modernui.graphics.text.LineBreaker;
+import icyllis.modernui.text.TextDirectionHeuristic;
+import icyllis.modernui.text.TextDirectionHeuristics;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.ChatFormatting;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.network.chat.Style;
+import org.joml.Matrix4f;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Incremental layout for editable plain text, used in edit boxes and chat input.
+ * <p>
+ * The text is split into segments at Unicode line break boundaries (generally words), and each
+ * segment is laid out separately through the vanilla layout cache. When the text is edited,
+ * only the segments around the edit position are split and laid out again, the segments before
+ * and after are reused. The start offset of each segment in x direction is cached, so that
+ * mapping between char index and x position costs O(log n).
+ * <p>
+ * Segmentation is only possible when the text contains no formatting codes and requires no
+ * bidirectional reordering, in other cases {@link #setText(String)} returns false and other
+ * methods must not be called.
+ *
+ * @author BloCamLimb
+ * @see icyllis.modernui.mc.text.mixin.MixinEditBox
+ */
+@RenderThread
+public class EditableTextLayout {
+
+    private final TextLayoutEngine mEngine;
+    private final Function<String, TextLayout> mLayoutFactory;
+
+    private String mText = "";
+    private boolean mSegmented;
+
+    /**
+     * Segment i is [mStarts[i], mStarts[i + 1]), the last value is the text length.
+     */
+    private final IntArrayList mStarts = new IntArrayList();
+    private final ArrayList<String> mSegments = new ArrayList<>();
+    private final ArrayList<TextLayout> mLayouts = new ArrayList<>();
+    /**
+     * Offset x of each segment, the last value is the total advance.
+     * Valid before {@link #mFirstDirtyOffset}.
+     */
+    private final FloatArrayList mOffsets = new FloatArrayList();
+    private int mFirstDirtyOffset;
+
+    private BreakIterator mLineBreaker;
+    private Locale mLineBreakerLocale;
+
+    public EditableTextLayout(@Nonnull TextLayoutEngine engine) {
+        mEngine = engine;
+        mLayoutFactory = segment -> engine.lookupVanillaLayout(segment,
+                Style.EMPTY, TextLayoutEngine.COMPUTE_ADVANCES);
+    }
+
+    /**
+     * For tests without the engine. The text is treated as LTR, line breaks use the root
+     * locale, and segments are laid out with the given function, they cannot be drawn.
+     */
+    EditableTextLayout(@Nonnull Function<String, TextLayout> layoutFactory) {
+        mEngine = null;
+        mLayoutFactory = layoutFactory;
+    }
+
+    /**
+     * Update the text, only the changed segments will be laid out again.
+     *
+     * @param text the new text
+     * @return true if the text is segmented, false if the text cannot be segmented
+     */
+    public boolean setText(@Nonnull String text) {
+        if (text != mText && !text.equals(mText)) {
+            final String oldText = mText;
+            mText = text;
+            if (text.isEmpty() || !canSegment(text)) {
+                mSegmented = false;
+            } else if (!mSegmented) {
+                mSegmented = true;
+                mStarts.clear();
+                mSegments.clear();
+                mLayouts.clear();
+                mStarts.add(0);
+                replaceSegments(0, 0, text.length());
+            } else {
+                final int length = text.length();
+                final int oldLength = oldText.length();
+                final int maxCommon = Math.min(length, oldLength);
+                int prefix = 0;
+                while (prefix < maxCommon &&
+                        text.charAt(prefix) == oldText.charAt(prefix)) {
+                    prefix++;
+                }
+                int suffix = 0;
+                while (suffix < maxCommon - prefix &&
+                        text.charAt(length - 1 - suffix) == oldText.charAt(oldLength - 1 - suffix)) {
+                    suffix++;
+                }
+                // one more segment on each side, line break opportunities depend on context
+                final int lastSegment = mSegments.size() - 1;
+                final int first = Math.max(segmentAt(prefix) - 1, 0);
+                final int last = Math.min(segmentAt(oldLength - suffix) + 1, lastSegment);
+                replaceSegments(first, last + 1,
+                        mStarts.getInt(last + 1) + length - oldLength);
+            }
+        }
+        return mSegmented;
+    }
+
+    /**
+     * @return the current text
+     */
+    @Nonnull
+    public String getText() {
+        return mText;
+    }
+
+    private boolean canSegment(@Nonnull String text) {
+        if (text.indexOf(ChatFormatting.PREFIX_CODE) >= 0) {
+            return false;
+        }
+        TextDirectionHeuristic dir = mEngine != null
+                ? mEngine.getTextDirectionHeuristic()
+                : TextDirectionHeuristics.LTR;
+        return (dir == TextDirectionHeuristics.LTR ||
+                dir == TextDirectionHeuristics.FIRSTSTRONG_LTR ||
+                dir == TextDirectionHeuristics.ANYRTL_LTR) &&
+                !Bidi.requiresBidi(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * Replace segments [first, last) with new segments that cover the range from the start of
+     * first segment to the given limit of the new text.
+     */
+    private void replaceSegments(int first, int last, int limit) {
+        final int start = mStarts.getInt(first);
+        final int delta = limit - mStarts.getInt(last);
+
+        // shift the boundaries after the replaced range, the end boundary of the
+        // replaced range at index last is removed and written as limit below
+        for (int i = last + 1, e = mStarts.size(); i < e; i++) {
+            mStarts.set(i, mStarts.getInt(i) + delta);
+        }
+        mStarts.removeElements(first + 1, last + 1);
+        mSegments.subList(first, last).clear();
+        mLayouts.subList(first, last).clear();
+
+        Locale locale = mEngine != null ? ModernUI.getSelectedLocale() : Locale.ROOT;
+        if (mLineBreaker == null || !locale.equals(mLineBreakerLocale)) {
+            mLineBreaker = BreakIterator.getLineInstance(
+                    LineBreaker.getLocaleWithLineBreakOption(locale,
+                            TextLayoutProcessor.sLbStyle, TextLayoutProcessor.sLbWordStyle)
+            );
+            mLineBreakerLocale = locale;
+        }
+        final BreakIterator breaker = mLineBreaker;
+        breaker.setText(mText.substring(start, limit));
+
+        int index = first;
+        int prevPos = 0, currPos;
+        while ((currPos = breaker.next()) != BreakIterator.DONE) {
+            String segment = mText.substring(start + prevPos, start + currPos);
+            mSegments.add(index, segment);
+            mLayouts.add(index, mLayoutFactory.apply(segment));
+            if (currPos < limit - start) {
+                mStarts.add(++index, start + currPos);
+            } else {
+                ++index;
+            }
+            prevPos = currPos;
+        }
+        // the end boundary, the start of the next segment or the text length
+        mStarts.add(index, limit);
+        assert mStarts.size() == mSegments.size() + 1;
+        mFirstDirtyOffset = Math.min(mFirstDirtyOffset, first);
+    }
+
+    /**
+     * Returns the index of the segment that contains the given char index,
+     * the last segment if the char index is the text length.
+     */
+    private int segmentAt(int index) {
+        // binary search, the last value is the text length
+        int low = 0;
+        int high = mSegments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mStarts.getInt(mid) <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of segments, for tests
+     */
+    int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * @param i the segment index, or the segment count for the end boundary
+     * @return the start char index of the segment, for tests
+     */
+    int getSegmentStart(int i) {
+        return mStarts.getInt(i);
+    }
+
+    private void ensureOffsets() {
+        final int count = mSegments.size();
+        if (mOffsets.size() != count + 1) {
+            mOffsets.size(count + 1);
+            mFirstDirtyOffset = Math.min(mFirstDirtyOffset, count);
+        }
+        if (mFirstDirtyOffset <= count) {
+            int i = mFirstDirtyOffset;
+            float x = i == 0 ? 0 : mOffsets.getFloat(i - 1) + mLayouts.get(i - 1).getTotalAdvance();
+            for (; i <= count; i++) {
+                mOffsets.set(i, x);
+                if (i < count) {
+                    x += mLayouts.get(i).getTotalAdvance();
+                }
+            }
+            mFirstDirtyOffset = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Returns the offset x of the given char index to the start of the text.
+     *
+     * @param index the char index
+     * @return the offset x in GUI scaled pixels
+     */
+    public float getXForOffset(int index) {
+        assert mSegmented;
+        ensureOffsets();
+        if (index >= mText.length()) {
+            return mOffsets.getFloat(mSegments.size());
+        }
+        int i = segmentAt(index);
+        return mOffsets.getFloat(i) + mLayouts.get(i).getAdvance(index - mStarts.getInt(i));
+    }
+
+    /**
+     * Returns the advance of the given range.
+     *
+     * @param start the start char index
+     * @param end   the end char index
+     * @return the advance in GUI scaled pixels
+     */
+    public float getAdvance(int start, int end) {
+        return getXForOffset(end) - getXForOffset(start);
+    }
+
+    /**
+     * Same as {@link ModernStringSplitter#breakText(String, float, Style, boolean)} forwards,
+     * but starts from the given char index.
+     *
+     * @param start the start char index
+     * @param width the max width in GUI scaled pixels
+     * @return break index
+     */
+    public int breakText(int start, float width) {
+        assert mSegmented;
+        final int length = mText.length();
+        if (start >= length || width < 0) {
+            return start;
+        }
+        final float startX = getXForOffset(start);
+        final float limitX = startX + width;
+        if (limitX >= mOffsets.getFloat(mSegments.size())) {
+            return length;
+        }
+        // find the segment that exceeds the limit
+        int low = segmentAt(start);
+        int high = mSegments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mOffsets.getFloat(mid) <= limitX) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int i = Math.max(start, mStarts.getInt(low) +
+                mLayouts.get(low).getOffsetForAdvance(limitX - mOffsets.getFloat(low)));
+        while (i > start && mText.charAt(i - 1) == ' ') i--;
+        return i;
+    }
+
+    /**
+     * Draw the given range of the text.
+     *
+     * @return the end x
+     * @see ModernTextRenderer#drawText(String, float, float, int, boolean, Matrix4f, MultiBufferSource,
+     * Font.DisplayMode, int, int)
+     */
+    public float drawText(int start, int end, float x, float y, int color, boolean dropShadow,
+                          @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                          Font.DisplayMode displayMode, int colorBackground, int packedLight) {
+        assert mSegmented;
+        if (start >= end) {
+            return x;
+        }
+        final int count = mSegments.size();
+        // keep them in cache, and check if the engine was reloaded, before computing offsets
+        for (int i = 0; i < count; i++) {
+            TextLayout layout = mEngine.lookupVanillaLayout(mSegments.get(i),
+                    Style.EMPTY, TextLayoutEngine.COMPUTE_ADVANCES);
+            if (layout != mLayouts.get(i)) {
+                mLayouts.set(i, layout);
+                mFirstDirtyOffset = Math.min(mFirstDirtyOffset, i + 1);
+            }
+        }
+        final ModernTextRenderer renderer = mEngine.getTextRenderer();
+        final float startX = getXForOffset(start);
+        final float endX = getXForOffset(end);
+        for (int i = segmentAt(start); i < count && mStarts.getInt(i) < end; i++) {
+            final int segStart = mStarts.getInt(i);
+            final int segEnd = mStarts.getInt(i + 1);
+            if (segStart >= start && segEnd <= end) {
+                renderer.drawText(mLayouts.get(i), mSegments.get(i),
+                        x + mOffsets.getFloat(i) - startX, y, color, dropShadow,
+                        matrix, source, displayMode, colorBackground, packedLight);
+            } else {
+                int pieceStart = Math.max(segStart, start);
+                renderer.drawText(mText.substring(pieceStart, Math.min(segEnd, end)),
+                        x + getXForOffset(pieceStart) - startX, y, color, dropShadow,
+                        matrix, source, displayMode, colorBackground, packedLight);
+            }
+        }
+        return x + endX - startX;
+    }
+}
@@ -78,11 +78,11 @@ public class EffectRenderType extends RenderType {
         );
         TYPE = new EffectRenderType("modern_text_effect", 256, () -> {
             STATES.forEach(RenderStateShard::setupRenderState);
-            RenderSystem.setShaderTexture(0, WHITE.getHandle());
+            RenderSystem.setShaderTexture(0, getWhiteTexture());
         }, () -> STATES.forEach(RenderStateShard::clearRenderState));
         SEE_THROUGH_TYPE = new EffectRenderType("modern_text_effect_see_through", 256, () -> {
             SEE_THROUGH_STATES.forEach(RenderStateShard::setupRenderState);
-            RenderSystem.setShaderTexture(0, WHITE.getHandle());
+            RenderSystem.setShaderTexture(0, getWhiteTexture());
         }, () -> SEE_THROUGH_STATES.forEach(RenderStateShard::clearRenderState));
     }
 
@@ -91,11 +91,8 @@ public class EffectRenderType extends RenderType {
                 bufferSize, false, true, setupState, clearState);
     }
 
-    @RenderThread
     @Nonnull
     public static EffectRenderType getRenderType(boolean seeThrough) {
-        if (WHITE == null)
-            makeWhiteTexture();
         return seeThrough ? SEE_THROUGH_TYPE : TYPE;
     }
 
@@ -105,6 +102,14 @@ public class EffectRenderType extends RenderType {
         throw new IllegalStateException();
     }
 
+    // created on first draw, so that getting render types doesn't require a GL context
+    @RenderThread
+    private static int getWhiteTexture() {
+        if (WHITE == null)
+            makeWhiteTexture();
+        return WHITE.getHandle();
+    }
+
     private static void makeWhiteTexture() {
         var dContext = Core.requireDirectContext();
         var format = GLBackendFormat.make(GL_RGBA8);
@@ -156,7 +156,7 @@ public class StandardFontSet extends FontSet {
                     float right = (float) (glyph.x + glyph.width) / TextLayoutEngine.BITMAP_SCALE;
                     float down = up + (float) glyph.height / TextLayoutEngine.BITMAP_SCALE;
                     return new StandardBakedGlyph(
-                            bitmapFont::getCurrentTexture,
+                            () -> glyph.texture,
                             glyph.u1,
                             glyph.u2,
                             glyph.v1,
@@ -19,6 +19,7 @@
 package icyllis.modernui.mc.text;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.blaze3d.vertex.*;
 import icyllis.arc3d.core.RefCnt;
@@ -27,9 +28,9 @@ import icyllis.arc3d.engine.SamplerState;
 import icyllis.arc3d.opengl.*;
 import icyllis.modernui.core.Core;
 import icyllis.modernui.mc.ModernUIMod;
+import icyllis.modernui.mc.text.mixin.AccessBufferBuilder;
 import icyllis.modernui.mc.text.mixin.AccessRenderBuffers;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.HashCommon;
 import net.fabricmc.fabric.impl.client.rendering.FabricShaderProgram;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.Font;
@@ -40,8 +41,11 @@ import net.minecraft.server.packs.resources.ResourceProvider;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
 
 import static icyllis.modernui.ModernUI.*;
 
@@ -69,6 +73,7 @@ public class TextRenderType extends RenderType {
 
     private static volatile ShaderInstance sShaderSDFFill;
     private static volatile ShaderInstance sShaderSDFStroke;
+    private static volatile ShaderInstance sShaderSDFFillStroke;
 
     @Nullable
     private static volatile ShaderInstance sShaderSDFFillSmart;
@@ -80,7 +85,22 @@ public class TextRenderType extends RenderType {
     static final ShaderStateShard
             RENDERTYPE_MODERN_TEXT_NORMAL = new ShaderStateShard(TextRenderType::getShaderNormal),
             RENDERTYPE_MODERN_TEXT_SDF_FILL = new ShaderStateShard(TextRenderType::getShaderSDFFill),
-            RENDERTYPE_MODERN_TEXT_SDF_STROKE = new ShaderStateShard(TextRenderType::getShaderSDFStroke);
+            RENDERTYPE_MODERN_TEXT_SDF_STROKE = new ShaderStateShard(TextRenderType::getShaderSDFStroke),
+            RENDERTYPE_MODERN_TEXT_SDF_FILL_STROKE = new ShaderStateShard(TextRenderType::getShaderSDFFillStroke);
+
+    /**
+     * Vertex format of SDF fill and stroke in one pass, the stroke color is packed into UV1.
+     *
+     * @see #getOrCreateSDFFillStroke(int)
+     */
+    public static final VertexFormat POSITION_COLOR_TEX_STROKE_LIGHTMAP = new VertexFormat(
+            ImmutableMap.<String, VertexFormatElement>builder()
+                    .put("Position", DefaultVertexFormat.ELEMENT_POSITION)
+                    .put("Color", DefaultVertexFormat.ELEMENT_COLOR)
+                    .put("UV0", DefaultVertexFormat.ELEMENT_UV0)
+                    .put("UV1", DefaultVertexFormat.ELEMENT_UV1)
+                    .put("UV2", DefaultVertexFormat.ELEMENT_UV2)
+                    .build());
 
     /**
      * Only the texture id is different, the rest state are same
@@ -88,23 +108,50 @@ public class TextRenderType extends RenderType {
     private static final ImmutableList<RenderStateShard> NORMAL_STATES;
     private static final ImmutableList<RenderStateShard> SDF_FILL_STATES;
     private static final ImmutableList<RenderStateShard> SDF_STROKE_STATES;
+    private static final ImmutableList<RenderStateShard> SDF_FILL_STROKE_STATES;
     private static final ImmutableList<RenderStateShard> SEE_THROUGH_STATES;
     private static final ImmutableList<RenderStateShard> POLYGON_OFFSET_STATES;
 
     /**
-     * Texture id to render type map
+     * Texture id to render type map. A render type only binds its texture id, so it remains
+     * valid when the texture is recreated with the same id, or when the id is reused by another
+     * font texture. These are never cleared, render types and their states are reused across
+     * reloads, and the number of font texture ids is small.
+     */
+    private static final TypeTable sNormalTypes = new TypeTable(TextRenderType::makeNormalType);
+    private static final TypeTable sSDFFillTypes = new TypeTable(TextRenderType::makeSDFFillType);
+    private static final TypeTable sSDFStrokeTypes = new TypeTable(TextRenderType::makeSDFStrokeType);
+    private static final TypeTable sSDFFillStrokeTypes = new TypeTable(TextRenderType::makeSDFFillStrokeType);
+    private static final TypeTable sSeeThroughTypes = new TypeTable(TextRenderType::makeSeeThroughType);
+    private static final TypeTable sPolygonOffsetTypes = new TypeTable(TextRenderType::makePolygonOffsetType);
+
+    /**
+     * The max number of SDF atlases per mode that have their own fixed buffers in world.
+     */
+    public static final int MAX_FIXED_SDF_ATLASES = 4;
+
+    /**
+     * Fixed buffers of SDF text in world, bound to the first few atlases used after reload.
+     * The slots and their usage statistics are kept across reloads.
      */
-    private static final Int2ObjectMap<TextRenderType> sNormalTypes = new Int2ObjectOpenHashMap<>();
-    private static final Int2ObjectMap<TextRenderType> sSDFFillTypes = new Int2ObjectOpenHashMap<>();
-    private static final Int2ObjectMap<TextRenderType> sSDFStrokeTypes = new Int2ObjectOpenHashMap<>();
-    private static final Int2ObjectMap<TextRenderType> sSeeThroughTypes = new Int2ObjectOpenHashMap<>();
-    private static final Int2ObjectMap<TextRenderType> sPolygonOffsetTypes = new Int2ObjectOpenHashMap<>();
+    private static final FixedBuffer[] sSDFFillBuffers = new FixedBuffer[MAX_FIXED_SDF_ATLASES];
+    private static int sSDFFillBufferCount;
+
+    private static final FixedBuffer[] sSDFStrokeBuffers = new FixedBuffer[MAX_FIXED_SDF_ATLASES];
+    private static int sSDFStrokeBufferCount;
+
+    private static final FixedBuffer[] sSDFFillStrokeBuffers = new FixedBuffer[MAX_FIXED_SDF_ATLASES];
+    private static int sSDFFillStrokeBufferCount;
 
-    private static TextRenderType sFirstSDFFillType;
-    private static final BufferBuilder sFirstSDFFillBuffer = new BufferBuilder(131072);
+    /**
+     * Color emoji render types, they always sample the current emoji atlas, and have their own
+     * fixed buffers, so that they are drawn after the sign sheet without breaking the batch.
+     */
+    private static TextRenderType sEmojiType;
+    private static final BufferBuilder sEmojiBuffer = new BufferBuilder(16384);
 
-    private static TextRenderType sFirstSDFStrokeType;
-    private static final BufferBuilder sFirstSDFStrokeBuffer = new BufferBuilder(131072);
+    private static TextRenderType sEmojiPolygonOffsetType;
+    private static final BufferBuilder sEmojiPolygonOffsetBuffer = new BufferBuilder(16384);
 
     // SDF requires bilinear sampling
     @SharedPtr
@@ -150,6 +197,19 @@ public class TextRenderType extends RenderType {
                 COLOR_DEPTH_WRITE,
                 DEFAULT_LINE
         );
+        SDF_FILL_STROKE_STATES = ImmutableList.of(
+                RENDERTYPE_MODERN_TEXT_SDF_FILL_STROKE,
+                TRANSLUCENT_TRANSPARENCY,
+                LEQUAL_DEPTH_TEST,
+                CULL,
+                LIGHTMAP,
+                NO_OVERLAY,
+                POLYGON_OFFSET_LAYERING,
+                MAIN_TARGET,
+                DEFAULT_TEXTURING,
+                COLOR_DEPTH_WRITE,
+                DEFAULT_LINE
+        );
         SEE_THROUGH_STATES = ImmutableList.of(
                 RENDERTYPE_TEXT_SEE_THROUGH_SHADER,
                 TRANSLUCENT_TRANSPARENCY,
@@ -178,18 +238,40 @@ public class TextRenderType extends RenderType {
         );
     }
 
+    // whether this is bound to a fixed buffer
+    private boolean mFixed;
+
     private TextRenderType(String name, int bufferSize, Runnable setupState, Runnable clearState) {
-        super(name, DefaultVertexFormat.POSITION_COLOR_TEX_LIGHTMAP, VertexFormat.Mode.QUADS,
+        this(name, DefaultVertexFormat.POSITION_COLOR_TEX_LIGHTMAP, bufferSize, setupState, clearState);
+    }
+
+    private TextRenderType(String name, VertexFormat format, int bufferSize,
+                           Runnable setupState, Runnable clearState) {
+        super(name, format, VertexFormat.Mode.QUADS,
                 bufferSize, false, true, setupState, clearState);
     }
 
     @Nonnull
     public static TextRenderType getOrCreate(int texture, int mode) {
         return switch (mode) {
-            default -> sNormalTypes.computeIfAbsent(texture, TextRenderType::makeNormalType);
-            case MODE_SDF_FILL -> sSDFFillTypes.computeIfAbsent(texture, TextRenderType::makeSDFFillType);
-            case MODE_SDF_STROKE -> sSDFStrokeTypes.computeIfAbsent(texture, TextRenderType::makeSDFStrokeType);
-            case MODE_SEE_THROUGH -> sSeeThroughTypes.computeIfAbsent(texture, TextRenderType::makeSeeThroughType);
+            default -> sNormalTypes.get(texture);
+            case MODE_SDF_FILL -> {
+                TextRenderType renderType = sSDFFillTypes.get(texture);
+                if (!renderType.mFixed && sSDFFillBufferCount < MAX_FIXED_SDF_ATLASES &&
+                        TextLayoutEngine.sUseTextShadersInWorld) {
+                    bindFixedBuffer(sSDFFillBuffers, sSDFFillBufferCount++, renderType, texture);
+                }
+                yield renderType;
+            }
+            case MODE_SDF_STROKE -> {
+                TextRenderType renderType = sSDFStrokeTypes.get(texture);
+                if (!renderType.mFixed && sSDFStrokeBufferCount < MAX_FIXED_SDF_ATLASES &&
+                        TextLayoutEngine.sUseTextShadersInWorld) {
+                    bindFixedBuffer(sSDFStrokeBuffers, sSDFStrokeBufferCount++, renderType, texture);
+                }
+                yield renderType;
+            }
+            case MODE_SEE_THROUGH -> sSeeThroughTypes.get(texture);
         };
     }
 
@@ -197,9 +279,9 @@ public class TextRenderType extends RenderType {
     @Nonnull
     public static TextRenderType getOrCreate(int texture, Font.DisplayMode mode) {
         return switch (mode) {
-            default -> sNormalTypes.computeIfAbsent(texture, TextRenderType::makeNormalType);
-            case SEE_THROUGH -> sSeeThroughTypes.computeIfAbsent(texture, TextRenderType::makeSeeThroughType);
-            case POLYGON_OFFSET -> sPolygonOffsetTypes.computeIfAbsent(texture, TextRenderType::makePolygonOffsetType);
+            default -> sNormalTypes.get(texture);
+            case SEE_THROUGH -> sSeeThroughTypes.get(texture);
+            case POLYGON_OFFSET -> sPolygonOffsetTypes.get(texture);
         };
     }
 
@@ -211,7 +293,8 @@ public class TextRenderType extends RenderType {
         }, () -> NORMAL_STATES.forEach(RenderStateShard::clearRenderState));
     }
 
-    private static void ensureLinearFontSampler() {
+    // the sampler may be released by clear(), render types are not
+    private static int getLinearFontSampler() {
         if (sLinearFontSampler == null) {
             GLDevice device = (GLDevice) Core.requireDirectContext().getDevice();
             // default state is bilinear
@@ -219,16 +302,16 @@ public class TextRenderType extends RenderType {
                     SamplerState.DEFAULT);
             Objects.requireNonNull(sLinearFontSampler, "Failed to create sampler object");
         }
+        return sLinearFontSampler.getHandle();
     }
 
     @Nonnull
     private static TextRenderType makeSDFFillType(int texture) {
-        ensureLinearFontSampler();
-        TextRenderType renderType = new TextRenderType("modern_text_sdf_fill", 256, () -> {
+        return new TextRenderType("modern_text_sdf_fill", 256, () -> {
             SDF_FILL_STATES.forEach(RenderStateShard::setupRenderState);
             RenderSystem.setShaderTexture(0, texture);
             if (!TextLayoutEngine.sCurrentInWorldRendering || TextLayoutEngine.sUseTextShadersInWorld) {
-                GLCore.glBindSampler(0, sLinearFontSampler.getHandle());
+                GLCore.glBindSampler(0, getLinearFontSampler());
             }
         }, () -> {
             SDF_FILL_STATES.forEach(RenderStateShard::clearRenderState);
@@ -236,25 +319,15 @@ public class TextRenderType extends RenderType {
                 GLCore.glBindSampler(0, 0);
             }
         });
-        if (sFirstSDFFillType == null) {
-            assert (sSDFFillTypes.isEmpty());
-            sFirstSDFFillType = renderType;
-            if (TextLayoutEngine.sUseTextShadersInWorld) {
-                ((AccessRenderBuffers) Minecraft.getInstance().renderBuffers()).getFixedBuffers()
-                        .put(renderType, sFirstSDFFillBuffer);
-            }
-        }
-        return renderType;
     }
 
     @Nonnull
     private static TextRenderType makeSDFStrokeType(int texture) {
-        ensureLinearFontSampler();
-        TextRenderType renderType = new TextRenderType("modern_text_sdf_stroke", 256, () -> {
+        return new TextRenderType("modern_text_sdf_stroke", 256, () -> {
             SDF_STROKE_STATES.forEach(RenderStateShard::setupRenderState);
             RenderSystem.setShaderTexture(0, texture);
             if (!TextLayoutEngine.sCurrentInWorldRendering || TextLayoutEngine.sUseTextShadersInWorld) {
-                GLCore.glBindSampler(0, sLinearFontSampler.getHandle());
+                GLCore.glBindSampler(0, getLinearFontSampler());
             }
         }, () -> {
             SDF_STROKE_STATES.forEach(RenderStateShard::clearRenderState);
@@ -262,17 +335,37 @@ public class TextRenderType extends RenderType {
                 GLCore.glBindSampler(0, 0);
             }
         });
-        if (sFirstSDFStrokeType == null) {
-            assert (sSDFStrokeTypes.isEmpty());
-            sFirstSDFStrokeType = renderType;
-            if (TextLayoutEngine.sUseTextShadersInWorld) {
-                ((AccessRenderBuffers) Minecraft.getInstance().renderBuffers()).getFixedBuffers()
-                        .put(renderType, sFirstSDFStrokeBuffer);
-            }
+    }
+
+    /**
+     * Returns the render type that draws SDF fill and stroke of each glyph in one pass,
+     * its vertex format is {@link #POSITION_COLOR_TEX_STROKE_LIGHTMAP}.
+     *
+     * @param texture the SDF glyph atlas
+     * @return the render type
+     */
+    @Nonnull
+    public static TextRenderType getOrCreateSDFFillStroke(int texture) {
+        TextRenderType renderType = sSDFFillStrokeTypes.get(texture);
+        if (!renderType.mFixed && sSDFFillStrokeBufferCount < MAX_FIXED_SDF_ATLASES &&
+                TextLayoutEngine.sUseTextShadersInWorld) {
+            bindFixedBuffer(sSDFFillStrokeBuffers, sSDFFillStrokeBufferCount++, renderType, texture);
         }
         return renderType;
     }
 
+    @Nonnull
+    private static TextRenderType makeSDFFillStrokeType(int texture) {
+        return new TextRenderType("modern_text_sdf_fill_stroke", POSITION_COLOR_TEX_STROKE_LIGHTMAP, 256, () -> {
+            SDF_FILL_STROKE_STATES.forEach(RenderStateShard::setupRenderState);
+            RenderSystem.setShaderTexture(0, texture);
+            GLCore.glBindSampler(0, getLinearFontSampler());
+        }, () -> {
+            SDF_FILL_STROKE_STATES.forEach(RenderStateShard::clearRenderState);
+            GLCore.glBindSampler(0, 0);
+        });
+    }
+
     @Nonnull
     private static TextRenderType makeSeeThroughType(int texture) {
         return new TextRenderType("modern_text_see_through", 256, () -> {
@@ -289,6 +382,58 @@ public class TextRenderType extends RenderType {
         }, () -> POLYGON_OFFSET_STATES.forEach(RenderStateShard::clearRenderState));
     }
 
+    /**
+     * Returns the render type for color emojis, with normal or polygon offset states.
+     * Unlike other text render types, it is not keyed by texture, the emoji atlas is
+     * looked up when the batch is drawn.
+     *
+     * @param polygonOffset true to use {@link Font.DisplayMode#POLYGON_OFFSET} states
+     * @return the emoji render type that has a fixed buffer
+     */
+    @Nonnull
+    public static TextRenderType getOrCreateEmoji(boolean polygonOffset) {
+        if (polygonOffset) {
+            if (sEmojiPolygonOffsetType == null) {
+                sEmojiPolygonOffsetType = new TextRenderType("modern_text_emoji_polygon_offset", 256, () -> {
+                    POLYGON_OFFSET_STATES.forEach(RenderStateShard::setupRenderState);
+                    RenderSystem.setShaderTexture(0, TextLayoutEngine.getInstance().getEmojiTexture());
+                }, () -> POLYGON_OFFSET_STATES.forEach(RenderStateShard::clearRenderState));
+                ((AccessRenderBuffers) Minecraft.getInstance().renderBuffers()).getFixedBuffers()
+                        .put(sEmojiPolygonOffsetType, sEmojiPolygonOffsetBuffer);
+            }
+            return sEmojiPolygonOffsetType;
+        } else {
+            if (sEmojiType == null) {
+                sEmojiType = new TextRenderType("modern_text_emoji", 256, () -> {
+                    NORMAL_STATES.forEach(RenderStateShard::setupRenderState);
+                    RenderSystem.setShaderTexture(0, TextLayoutEngine.getInstance().getEmojiTexture());
+                }, () -> NORMAL_STATES.forEach(RenderStateShard::clearRenderState));
+                ((AccessRenderBuffers) Minecraft.getInstance().renderBuffers()).getFixedBuffers()
+                        .put(sEmojiType, sEmojiBuffer);
+            }
+            return sEmojiType;
+        }
+    }
+
+    /**
+     * Returns the emoji render type if created.
+     *
+     * @see #getOrCreateEmoji(boolean)
+     */
+    @Nullable
+    public static TextRenderType getEmojiType(boolean polygonOffset) {
+        return polygonOffset ? sEmojiPolygonOffsetType : sEmojiType;
+    }
+
+    private static void bindFixedBuffer(FixedBuffer[] buffers, int index,
+                                        TextRenderType renderType, int texture) {
+        FixedBuffer buffer = buffers[index];
+        if (buffer == null) {
+            buffers[index] = buffer = new FixedBuffer();
+        }
+        buffer.bind(renderType, texture);
+    }
+
     /**
      * Batch rendering and custom ordering.
      * <p>
@@ -296,7 +441,7 @@ public class TextRenderType extends RenderType {
      */
     @Nullable
     public static TextRenderType getFirstSDFFillType() {
-        return sFirstSDFFillType;
+        return sSDFFillBufferCount > 0 ? sSDFFillBuffers[0].mRenderType : null;
     }
 
     /**
@@ -306,29 +451,84 @@ public class TextRenderType extends RenderType {
      */
     @Nullable
     public static TextRenderType getFirstSDFStrokeType() {
-        return sFirstSDFStrokeType;
+        return sSDFStrokeBufferCount > 0 ? sSDFStrokeBuffers[0].mRenderType : null;
+    }
+
+    /**
+     * Draw all SDF text in fixed buffers, fill before stroke, and stroke before text that
+     * has fill and stroke in one pass (glowing signs), then resize these buffers
+     * according to recent usage.
+     *
+     * @param source the main buffer source
+     */
+    public static void endFixedSDFBatches(@Nonnull MultiBufferSource.BufferSource source) {
+        for (int i = 0; i < sSDFFillBufferCount; i++) {
+            sSDFFillBuffers[i].endBatch(source);
+        }
+        for (int i = 0; i < sSDFStrokeBufferCount; i++) {
+            sSDFStrokeBuffers[i].endBatch(source);
+        }
+        for (int i = 0; i < sSDFFillStrokeBufferCount; i++) {
+            sSDFFillStrokeBuffers[i].endBatch(source);
+        }
+    }
+
+    public static void dumpInfo(@Nonnull PrintWriter pw) {
+        pw.print("TextRenderType: ");
+        pw.print("SDFFillBuffers=" + sSDFFillBufferCount);
+        pw.print(", SDFStrokeBuffers=" + sSDFStrokeBufferCount);
+        pw.println(", SDFFillStrokeBuffers=" + sSDFFillStrokeBufferCount);
+        for (int i = 0; i < MAX_FIXED_SDF_ATLASES; i++) {
+            if (sSDFFillBuffers[i] != null) {
+                sSDFFillBuffers[i].dumpInfo(pw, "SDFFill", i);
+            }
+        }
+        for (int i = 0; i < MAX_FIXED_SDF_ATLASES; i++) {
+            if (sSDFStrokeBuffers[i] != null) {
+                sSDFStrokeBuffers[i].dumpInfo(pw, "SDFStroke", i);
+            }
+        }
+        for (int i = 0; i < MAX_FIXED_SDF_ATLASES; i++) {
+            if (sSDFFillStrokeBuffers[i] != null) {
+                sSDFFillStrokeBuffers[i].dumpInfo(pw, "SDFFillStroke", i);
+            }
+        }
     }
 
     public static void clear() {
-        if (sFirstSDFFillType != null) {
-            assert (!sSDFFillTypes.isEmpty());
+        for (int i = 0; i < sSDFFillBufferCount; i++) {
+            sSDFFillBuffers[i].unbind();
+        }
+        sSDFFillBufferCount = 0;
+        for (int i = 0; i < sSDFStrokeBufferCount; i++) {
+            sSDFStrokeBuffers[i].unbind();
+        }
+        sSDFStrokeBufferCount = 0;
+        for (int i = 0; i < sSDFFillStrokeBufferCount; i++) {
+            sSDFFillStrokeBuffers[i].unbind();
+        }
+        sSDFFillStrokeBufferCount = 0;
+        if (sEmojiType != null) {
             var access = (AccessRenderBuffers) Minecraft.getInstance().renderBuffers();
-            access.getFixedBuffers().remove(sFirstSDFFillType, sFirstSDFFillBuffer);
-            sFirstSDFFillType = null;
+            access.getFixedBuffers().remove(sEmojiType, sEmojiBuffer);
+            sEmojiType = null;
         }
-        if (sFirstSDFStrokeType != null) {
-            assert (!sSDFStrokeTypes.isEmpty());
+        if (sEmojiPolygonOffsetType != null) {
             var access = (AccessRenderBuffers) Minecraft.getInstance().renderBuffers();
-            access.getFixedBuffers().remove(sFirstSDFStrokeType, sFirstSDFStrokeBuffer);
-            sFirstSDFStrokeType = null;
+            access.getFixedBuffers().remove(sEmojiPolygonOffsetType, sEmojiPolygonOffsetBuffer);
+            sEmojiPolygonOffsetType = null;
         }
-        sNormalTypes.clear();
-        sSDFFillTypes.clear();
-        sSDFStrokeTypes.clear();
-        sSeeThroughTypes.clear();
-        sFirstSDFFillBuffer.clear();
-        sFirstSDFStrokeBuffer.clear();
+        sEmojiBuffer.clear();
+        sEmojiPolygonOffsetBuffer.clear();
         sLinearFontSampler = RefCnt.move(sLinearFontSampler);
+        // atlases get new texture ids when recreated, drop the types of deleted textures
+        final IntPredicate live = GLCore::glIsTexture;
+        sNormalTypes.retain(live);
+        sSDFFillTypes.retain(live);
+        sSDFStrokeTypes.retain(live);
+        sSDFFillStrokeTypes.retain(live);
+        sSeeThroughTypes.retain(live);
+        sPolygonOffsetTypes.retain(live);
     }
 
     public static ShaderInstance getShaderNormal() {
@@ -349,6 +549,10 @@ public class TextRenderType extends RenderType {
         return sCurrentShaderSDFStroke;
     }
 
+    public static ShaderInstance getShaderSDFFillStroke() {
+        return sShaderSDFFillStroke;
+    }
+
     // RT only
     public static synchronized void toggleSDFShaders(boolean smart) {
         if (smart) {
@@ -404,6 +608,9 @@ public class TextRenderType extends RenderType {
             sShaderSDFStroke = new FabricShaderProgram(provider,
                     ModernUIMod.location("rendertype_modern_text_sdf_stroke"),
                     DefaultVertexFormat.POSITION_COLOR_TEX_LIGHTMAP);
+            sShaderSDFFillStroke = new FabricShaderProgram(provider,
+                    ModernUIMod.location("rendertype_modern_text_sdf_fill_stroke"),
+                    POSITION_COLOR_TEX_STROKE_LIGHTMAP);
         } catch (IOException e) {
             throw new IllegalStateException("Bad text shaders", e);
         }
@@ -426,4 +633,196 @@ public class TextRenderType extends RenderType {
             return Optional.of(new Resource(source, () -> stream));
         };
     }
+
+    /**
+     * A fixed buffer whose capacity follows the peak usage of recent frames. The buffer grows
+     * by itself during a frame, and it's reallocated smaller after the peak has decayed and the
+     * buffer has stayed oversized for a while, so that a burst of world text doesn't keep a large
+     * buffer forever.
+     */
+    private static final class FixedBuffer {
+
+        // 16 KiB, about 146 glyphs in POSITION_COLOR_TEX_LIGHTMAP
+        private static final int MIN_CAPACITY = 16384;
+        // BufferBuilder allocates 6 bytes per unit of its initial size
+        private static final int BYTES_PER_UNIT = 6;
+        // per frame, the peak halves in about 2 seconds at 60 FPS
+        private static final float PEAK_DECAY = 0.9942f;
+        // consecutive oversized frames before shrinking, about 2 seconds at 60 FPS
+        private static final int SHRINK_FRAMES = 120;
+
+        private TextRenderType mRenderType;
+        private int mTexture;
+
+        private BufferBuilder mBuilder = new BufferBuilder(MIN_CAPACITY / BYTES_PER_UNIT);
+
+        // decayed peak usage in bytes
+        private float mPeak;
+        // max usage in bytes since created
+        private int mHighWater;
+        private int mOversizedFrames;
+        private int mReallocations;
+
+        void bind(TextRenderType renderType, int texture) {
+            assert mRenderType == null;
+            mRenderType = renderType;
+            mTexture = texture;
+            renderType.mFixed = true;
+            ((AccessRenderBuffers) Minecraft.getInstance().renderBuffers()).getFixedBuffers()
+                    .put(renderType, mBuilder);
+        }
+
+        void unbind() {
+            ((AccessRenderBuffers) Minecraft.getInstance().renderBuffers()).getFixedBuffers()
+                    .remove(mRenderType, mBuilder);
+            mRenderType.mFixed = false;
+            mRenderType = null;
+            mBuilder.clear();
+        }
+
+        void endBatch(@Nonnull MultiBufferSource.BufferSource source) {
+            int used = 0;
+            if (mBuilder.building()) {
+                var access = (AccessBufferBuilder) mBuilder;
+                used = access.getNextElementByte() - access.getRenderedBufferPointer();
+            }
+            mHighWater = Math.max(mHighWater, used);
+            mPeak = Math.max(used, mPeak * PEAK_DECAY);
+            source.endBatch(mRenderType);
+            // reallocate only if much larger than needed for a while, this avoids thrashing
+            int target = Math.max(MIN_CAPACITY,
+                    HashCommon.nextPowerOfTwo((int) (mPeak * 1.25f)));
+            int capacity = ((AccessBufferBuilder) mBuilder).getBuffer().capacity();
+            if (capacity < target << 2 || mBuilder.building()) {
+                mOversizedFrames = 0;
+            } else if (++mOversizedFrames >= SHRINK_FRAMES) {
+                BufferBuilder builder = new BufferBuilder(target / BYTES_PER_UNIT);
+                ((AccessRenderBuffers) Minecraft.getInstance().renderBuffers()).getFixedBuffers()
+                        .put(mRenderType, builder);
+                mBuilder.release();
+                mBuilder = builder;
+                mOversizedFrames = 0;
+                mReallocations++;
+            }
+        }
+
+        void dumpInfo(@Nonnull PrintWriter pw, String name, int index) {
+            pw.print("  " + name + "[" + index + "]: ");
+            pw.print("Texture=" + (mRenderType != null ? mTexture : "none"));
+            pw.print(", Capacity=" + ((AccessBufferBuilder) mBuilder).getBuffer().capacity());
+            pw.print(", Peak=" + (int) mPeak);
+            pw.print(", HighWater=" + mHighWater);
+            pw.println(", Reallocations=" + mReallocations);
+        }
+    }
+
+    /**
+     * Open addressing texture id to render type map. Lookups read an immutable snapshot
+     * without locking, creation and removal are serialized and publish a new snapshot
+     * (copy-on-write), since misses only happen a few times per font texture.
+     */
+    private static final class TypeTable {
+
+        private final IntFunction<TextRenderType> mFactory;
+
+        // length is always a power of two, null value means empty slot
+        private volatile Snapshot mSnapshot = new Snapshot(new int[16], new TextRenderType[16], 0);
+
+        TypeTable(IntFunction<TextRenderType> factory) {
+            mFactory = factory;
+        }
+
+        @Nonnull
+        TextRenderType get(int texture) {
+            final Snapshot s = mSnapshot;
+            final int mask = s.values.length - 1;
+            for (int i = HashCommon.mix(texture) & mask; ; i = (i + 1) & mask) {
+                TextRenderType v = s.values[i];
+                if (v == null) {
+                    break;
+                }
+                if (s.keys[i] == texture) {
+                    return v;
+                }
+            }
+            return create(texture);
+        }
+
+        @Nonnull
+        private synchronized TextRenderType create(int texture) {
+            Snapshot s = mSnapshot;
+            int mask = s.values.length - 1;
+            for (int i = HashCommon.mix(texture) & mask; ; i = (i + 1) & mask) {
+                TextRenderType v = s.values[i];
+                if (v == null) {
+                    break;
+                }
+                if (s.keys[i] == texture) {
+                    return v;
+                }
+            }
+            TextRenderType renderType = mFactory.apply(texture);
+            // keep load factor below 0.5
+            int capacity = (s.size + 1) << 1 > s.values.length
+                    ? s.values.length << 1
+                    : s.values.length;
+            int[] keys = new int[capacity];
+            TextRenderType[] values = new TextRenderType[capacity];
+            mask = capacity - 1;
+            for (int j = 0; j < s.values.length; j++) {
+                if (s.values[j] != null) {
+                    put(keys, values, mask, s.keys[j], s.values[j]);
+                }
+            }
+            put(keys, values, mask, texture, renderType);
+            mSnapshot = new Snapshot(keys, values, s.size + 1);
+            return renderType;
+        }
+
+        /**
+         * Removes the render types whose texture doesn't match the filter, and publishes
+         * a new snapshot if any was removed.
+         */
+        synchronized void retain(@Nonnull IntPredicate filter) {
+            final Snapshot s = mSnapshot;
+            final int[] retainedKeys = new int[s.size];
+            final TextRenderType[] retainedValues = new TextRenderType[s.size];
+            int size = 0;
+            for (int j = 0; j < s.values.length; j++) {
+                if (s.values[j] != null && filter.test(s.keys[j])) {
+                    retainedKeys[size] = s.keys[j];
+                    retainedValues[size] = s.values[j];
+                    size++;
+                }
+            }
+            if (size == s.size) {
+                return;
+            }
+            // keep load factor below 0.5
+            int capacity = 16;
+            while (size << 1 > capacity) {
+                capacity <<= 1;
+            }
+            int[] keys = new int[capacity];
+            TextRenderType[] values = new TextRenderType[capacity];
+            final int mask = capacity - 1;
+            for (int j = 0; j < size; j++) {
+                put(keys, values, mask, retainedKeys[j], retainedValues[j]);
+            }
+            mSnapshot = new Snapshot(keys, values, size);
+        }
+
+        private static void put(int[] keys, TextRenderType[] values, int mask,
+                                int key, TextRenderType value) {
+            int i = HashCommon.mix(key) & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private record Snapshot(int[] keys, TextRenderType[] values, int size) {
+        }
+    }
 }
@@ -106,17 +106,16 @@ public class VanillaLayoutKey {
             // true if a section mark character was last seen. In this case, if the next character
             // is a digit, it must not be considered equal to any other digit. This forces any string
             // that differs in formatting codes only to have a separate entry in the cache.
-            /*boolean prefix = false;
+            boolean prefix = false;
             for (int i = 0, e = s.length(); i < e; i++) {
                 char c = s.charAt(i);
                 // fast digit replacement contract
-                if (!prefix && c <= '9' && c >= '0') {
+                if (!prefix && c <= '9' && c >= '0' && isFastDigit(s, i)) {
                     c = '0';
                 }
                 h = 31 * h + c;
                 prefix = (c == ChatFormatting.PREFIX_CODE);
-            }*/
-            h = s.hashCode();
+            }
 
             h = 31 * h + mFont.hashCode();
             h = 31 * h + mCode;
@@ -146,10 +145,8 @@ public class VanillaLayoutKey {
             return false;
         }
 
-        return mText.equals(key.mText);
-
-        /*final String s1 = mView;
-        final String s2 = key.mView;
+        final String s1 = mText;
+        final String s2 = key.mText;
 
         final int length = s1.length();
 
@@ -165,13 +162,40 @@ public class VanillaLayoutKey {
             char c1 = s1.charAt(i);
             char c2 = s2.charAt(i);
             // fast digit replacement contract
-            if (c1 != c2 && (prefix || c1 > '9' || c1 < '0' || c2 > '9' || c2 < '0')) {
+            if (c1 != c2 && (prefix || c1 > '9' || c1 < '0' || c2 > '9' || c2 < '0' ||
+                    !isFastDigit(s1, i) || !isFastDigit(s2, i))) {
                 return false;
             }
             prefix = (c1 == ChatFormatting.PREFIX_CODE);
         }
 
-        return true;*/
+        return true;
+    }
+
+    /**
+     * Returns whether the ASCII digit at the given index can be replaced on the fly.
+     * A digit followed by a variation selector or a combining enclosing keycap may be
+     * a part of an emoji sequence, the next char is found after skipping formatting codes.
+     *
+     * @param s     the string with formatting codes
+     * @param index the index of an ASCII digit that is not a formatting code
+     * @return true if fast digit
+     * @see TextLayoutProcessor
+     */
+    static boolean isFastDigit(@Nonnull String s, int index) {
+        final int length = s.length();
+        int next = index + 1;
+        while (next < length && s.charAt(next) == ChatFormatting.PREFIX_CODE) {
+            next += 2;
+        }
+        return next >= length || !isDigitModifier(s.charAt(next));
+    }
+
+    /**
+     * Returns whether the char may modify its previous ASCII digit.
+     */
+    static boolean isDigitModifier(char c) {
+        return (c >= '\uFE00' && c <= '\uFE0F') || c == '\u20E3';
     }
 
     @Override
@@ -0,0 +1,285 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.renderer.MultiBufferSource;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Collects in-world text submitted to the level buffer source during entity and block entity
+ * rendering, then draws them together before the text buffers are ended. Vanilla renders
+ * nameplates and signs between entity models, every text render type switch ends the previous
+ * batch, so a busy scene produces a few draw calls per string.
+ * <p>
+ * At the end, the text outside the view frustum or beyond {@link #sMaxDistance} is culled,
+ * the rest are sorted by display mode, so that each render type is switched as few times as
+ * possible, and then by depth, back to front, for translucent blending. Distant text is drawn
+ * with less detail, based on the line height projected to screen.
+ * <p>
+ * This class is used on render thread only.
+ */
+public final class WorldTextBatcher {
+
+    /**
+     * Config values
+     */
+    public static volatile boolean sEnabled = true;
+    /**
+     * The max distance in blocks to camera, 0 means no limit.
+     */
+    public static volatile int sMaxDistance = 0;
+    /**
+     * Level of detail, thresholds of the projected line height in screen pixels, below which
+     * the glowing outline is skipped, underline and strikethrough are skipped, a silhouette
+     * is drawn instead of glyphs, or the text is culled. 0 disables the level.
+     */
+    public static volatile float sLodOutlineSize = 6;
+    public static volatile float sLodEffectSize = 4;
+    public static volatile float sLodSilhouetteSize = 2;
+    public static volatile float sLodCullSize = 0.5f;
+
+    static final int LOD_FULL = 0;
+    static final int LOD_NO_OUTLINE = 1;
+    static final int LOD_NO_EFFECT = 2;
+    static final int LOD_SILHOUETTE = 3;
+
+    // vanilla line height
+    private static final float LINE_HEIGHT = 9;
+
+    private static final Comparator<Entry> ENTRY_COMPARATOR = (lhs, rhs) -> {
+        if (lhs.mKey != rhs.mKey) {
+            return Integer.compare(lhs.mKey, rhs.mKey);
+        }
+        // farther first
+        return Float.compare(rhs.mDistanceSq, lhs.mDistanceSq);
+    };
+
+    private final ModernTextRenderer mRenderer;
+
+    @Nullable
+    private MultiBufferSource mSource;
+
+    private Entry[] mEntries = new Entry[64];
+    private int mCount;
+
+    private final FrustumIntersection mFrustum = new FrustumIntersection();
+    private final Vector3f mTmpVec = new Vector3f();
+
+    WorldTextBatcher(ModernTextRenderer renderer) {
+        mRenderer = renderer;
+    }
+
+    /**
+     * Start collecting text that will be drawn to the given buffer source.
+     *
+     * @param source the level buffer source
+     */
+    public void begin(@Nonnull MultiBufferSource source) {
+        if (mCount != 0) {
+            // the last batch was not ended, draw them now
+            end(null);
+        }
+        mSource = sEnabled ? source : null;
+    }
+
+    /**
+     * @return true if text drawn to the source should be collected
+     */
+    public boolean isBatching(MultiBufferSource source) {
+        return source == mSource;
+    }
+
+    void add(@Nonnull TextLayout layout, @Nullable String text, float x, float y,
+             int color, boolean dropShadow, @Nonnull Matrix4f matrix,
+             Font.DisplayMode displayMode, int colorBackground, int packedLight) {
+        Entry e = obtain();
+        e.mLayout = layout;
+        e.mText = text;
+        e.mX = x;
+        e.mY = y;
+        e.mColor = color;
+        e.mDropShadow = dropShadow;
+        e.mMatrix.set(matrix);
+        e.mDisplayMode = displayMode;
+        e.mColorBackground = colorBackground;
+        e.mPackedLight = packedLight;
+        e.mOutline = false;
+        // see-through parts of nameplates are drawn first, like vanilla
+        e.mKey = switch (displayMode) {
+            case SEE_THROUGH -> 0;
+            case NORMAL -> 1;
+            case POLYGON_OFFSET -> 2;
+        };
+    }
+
+    void add8xOutline(@Nonnull TextLayout layout, float x, float y,
+                      int color, int outlineColor, @Nonnull Matrix4f matrix, int packedLight) {
+        Entry e = obtain();
+        e.mLayout = layout;
+        e.mText = null;
+        e.mX = x;
+        e.mY = y;
+        e.mColor = color;
+        e.mColorBackground = outlineColor;
+        e.mMatrix.set(matrix);
+        e.mPackedLight = packedLight;
+        e.mOutline = true;
+        e.mKey = 3;
+    }
+
+    @Nonnull
+    private Entry obtain() {
+        if (mCount == mEntries.length) {
+            mEntries = Arrays.copyOf(mEntries, mCount << 1);
+        }
+        Entry e = mEntries[mCount];
+        if (e == null) {
+            mEntries[mCount] = e = new Entry();
+        }
+        mCount++;
+        return e;
+    }
+
+    /**
+     * Cull, sort and draw the collected text, then stop collecting.
+     *
+     * @param projection the projection matrix of the level, or null to skip frustum culling
+     */
+    public void end(@Nullable Matrix4f projection) {
+        final MultiBufferSource source = mSource;
+        mSource = null;
+        final int count = mCount;
+        if (count == 0 || source == null) {
+            mCount = 0;
+            return;
+        }
+        final Entry[] entries = mEntries;
+        if (projection != null) {
+            mFrustum.set(projection);
+        }
+        final float maxDistance = sMaxDistance;
+        final float maxDistanceSq = maxDistance * maxDistance;
+        final Vector3f v = mTmpVec;
+        // projected size = line height * scale * pixelsPerUnit / depth
+        final float pixelsPerUnit = projection != null
+                ? projection.m11() * Minecraft.getInstance().getWindow().getHeight() * 0.5f
+                : 0;
+        final float lodOutline = sLodOutlineSize;
+        final float lodEffect = sLodEffectSize;
+        final float lodSilhouette = sLodSilhouetteSize;
+        final float lodCull = sLodCullSize;
+        int visible = 0;
+        for (int i = 0; i < count; i++) {
+            Entry e = entries[i];
+            final float halfWidth = e.mLayout.getTotalAdvance() * 0.5f;
+            // the matrix transforms text to view space, where the camera is at origin
+            e.mMatrix.transformPosition(e.mX + halfWidth, e.mY + 4.5f, 0, v);
+            e.mDistanceSq = v.lengthSquared();
+            if (maxDistance > 0 && e.mDistanceSq > maxDistanceSq) {
+                continue;
+            }
+            e.mLod = LOD_FULL;
+            if (projection != null) {
+                final Matrix4f m = e.mMatrix;
+                float scale = (float) Math.sqrt(Math.max(
+                        m.m00() * m.m00() + m.m01() * m.m01() + m.m02() * m.m02(),
+                        m.m10() * m.m10() + m.m11() * m.m11() + m.m12() * m.m12()));
+                float radius = scale * (float) Math.sqrt(halfWidth * halfWidth + 4.5f * 4.5f) + 1.0f;
+                if (!mFrustum.testSphere(v.x, v.y, v.z, radius)) {
+                    continue;
+                }
+                float size = LINE_HEIGHT * scale * pixelsPerUnit / Math.max(-v.z, 0.05f);
+                if (size < lodCull) {
+                    continue;
+                }
+                if (size < lodSilhouette) {
+                    e.mLod = LOD_SILHOUETTE;
+                } else if (size < lodEffect) {
+                    e.mLod = LOD_NO_EFFECT;
+                } else if (size < lodOutline) {
+                    e.mLod = LOD_NO_OUTLINE;
+                }
+            }
+            // swap to the visible part
+            entries[i] = entries[visible];
+            entries[visible++] = e;
+        }
+        Arrays.sort(entries, 0, visible, ENTRY_COMPARATOR);
+        for (int i = 0; i < visible; i++) {
+            Entry e = entries[i];
+            final int lod = e.mLod;
+            if (lod == LOD_SILHOUETTE) {
+                mRenderer.drawLayoutSilhouette(e.mLayout, e.mX, e.mY, e.mColor, e.mMatrix, source,
+                        e.mOutline ? Font.DisplayMode.NORMAL : e.mDisplayMode,
+                        e.mOutline ? 0 : e.mColorBackground, e.mPackedLight);
+                continue;
+            }
+            TextLayout.sDrawEffects = lod < LOD_NO_EFFECT;
+            if (e.mOutline) {
+                if (lod == LOD_FULL) {
+                    mRenderer.drawLayout8xOutline(e.mLayout, e.mX, e.mY, e.mColor, e.mColorBackground,
+                            e.mMatrix, source, e.mPackedLight);
+                } else {
+                    mRenderer.drawLayout(e.mLayout, null, e.mX, e.mY, e.mColor, false,
+                            e.mMatrix, source, Font.DisplayMode.NORMAL, 0, e.mPackedLight);
+                }
+            } else {
+                mRenderer.drawLayout(e.mLayout, e.mText, e.mX, e.mY, e.mColor, e.mDropShadow,
+                        e.mMatrix, source, e.mDisplayMode, e.mColorBackground, e.mPackedLight);
+            }
+        }
+        TextLayout.sDrawEffects = true;
+        for (int i = 0; i < count; i++) {
+            entries[i].release();
+        }
+        mCount = 0;
+    }
+
+    private static final class Entry {
+
+        final Matrix4f mMatrix = new Matrix4f();
+        TextLayout mLayout;
+        String mText;
+        boolean mOutline;
+        float mX;
+        float mY;
+        int mColor;
+        boolean mDropShadow;
+        Font.DisplayMode mDisplayMode;
+        int mColorBackground;
+        int mPackedLight;
+        int mKey;
+        float mDistanceSq;
+        int mLod;
+
+        void release() {
+            mLayout = null;
+            mText = null;
+        }
+    }
+}
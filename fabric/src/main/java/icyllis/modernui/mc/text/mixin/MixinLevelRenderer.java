@@ -39,6 +39,20 @@ public class MixinLevelRenderer {
     @Final
     private RenderBuffers renderBuffers;
 
+    @Inject(method = "renderLevel", at = @At("HEAD"))
+    private void beginTextBatch(PoseStack poseStack,
+                                float partialTick,
+                                long finishNanoTime,
+                                boolean renderBlockOutline,
+                                Camera camera,
+                                GameRenderer gameRenderer,
+                                LightTexture lightTexture,
+                                Matrix4f projectionMatrix,
+                                CallbackInfo ci) {
+        TextLayoutEngine.getInstance().getTextRenderer().getWorldTextBatcher()
+                .begin(renderBuffers.bufferSource());
+    }
+
     @Inject(method = "renderLevel",
             at = @At(value = "INVOKE",
                     target = "Lnet/minecraft/client/renderer/OutlineBufferSource;endOutlineBatch()V"))
@@ -51,15 +65,21 @@ public class MixinLevelRenderer {
                               LightTexture lightTexture,
                               Matrix4f projectionMatrix,
                               CallbackInfo ci) {
+        // nameplates and signs collected during entity and block entity rendering
+        TextLayoutEngine.getInstance().getTextRenderer().getWorldTextBatcher()
+                .end(projectionMatrix);
         if (TextLayoutEngine.sUseTextShadersInWorld) {
-            TextRenderType firstSDFFillType = TextRenderType.getFirstSDFFillType();
-            TextRenderType firstSDFStrokeType = TextRenderType.getFirstSDFStrokeType();
-            if (firstSDFFillType != null) {
-                renderBuffers.bufferSource().endBatch(firstSDFFillType);
-            }
-            if (firstSDFStrokeType != null) {
-                renderBuffers.bufferSource().endBatch(firstSDFStrokeType);
-            }
+            // SDF fill, stroke, and glowing sign text that has both, after sign sheets
+            TextRenderType.endFixedSDFBatches(renderBuffers.bufferSource());
+        }
+        // color emojis after sign sheets
+        TextRenderType emojiType = TextRenderType.getEmojiType(false);
+        TextRenderType emojiPolygonOffsetType = TextRenderType.getEmojiType(true);
+        if (emojiType != null) {
+            renderBuffers.bufferSource().endBatch(emojiType);
+        }
+        if (emojiPolygonOffsetType != null) {
+            renderBuffers.bufferSource().endBatch(emojiPolygonOffsetType);
         }
     }
 }
@@ -21,21 +21,25 @@ package icyllis.modernui.mc;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import icyllis.modernui.ModernUI;
+import icyllis.modernui.annotation.RenderThread;
 import icyllis.modernui.graphics.font.GlyphManager;
 import icyllis.modernui.graphics.text.*;
 import icyllis.modernui.mc.text.TextLayoutEngine;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.resources.PreparableReloadListener;
 import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.util.profiling.ProfilerFiller;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.*;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
+import java.util.concurrent.*;
 
 import static icyllis.modernui.ModernUI.LOGGER;
 
@@ -65,12 +69,36 @@ public class FontResourceManager implements PreparableReloadListener {
 
     protected final GlyphManager mGlyphManager;
 
+    /**
+     * The maximum number of new emojis inserted into the color atlas per frame.
+     */
+    public static final int EMOJI_UPLOADS_PER_FRAME = 4;
+
     protected EmojiFont mEmojiFont;
+    // emoji file names, indexed by glyph ID - 1
+    protected List<String> mEmojiFiles = Collections.emptyList();
+
+    /*
+     * Emoji PNGs are read on a worker when first seen, then the glyph manager decodes
+     * them from memory and inserts them into the color atlas, with a budget per frame.
+     * The state is reset when the atlas is cleared or compacted, so emojis that are no
+     * longer used will not be inserted again.
+     */
+    // glyph IDs that have been requested, render thread only
+    private final IntOpenHashSet mEmojiRequested = new IntOpenHashSet();
+    // glyph IDs that have been inserted into the atlas, render thread only
+    private final IntOpenHashSet mEmojiInserted = new IntOpenHashSet();
+    // resource path to encoded PNG, read on worker and consumed by glyph manager
+    private final ConcurrentHashMap<String, byte[]> mEmojiData = new ConcurrentHashMap<>();
+    // advanced once per frame, see onRenderFrame()
+    private long mFrameCount;
+    private long mEmojiFrame = -1;
+    private int mEmojiUploads;
 
     /**
      * Shortcodes to Emoji char sequences.
      */
-    protected final HashMap<String, String> mEmojiShortcodes = new HashMap<>();
+    protected volatile EmojiShortcodeTrie mEmojiShortcodes = EmojiShortcodeTrie.EMPTY;
 
     protected FontResourceManager() {
         // init first
@@ -100,6 +128,7 @@ public class FontResourceManager implements PreparableReloadListener {
 
     public void reloadAll() {
         mGlyphManager.reload();
+        resetEmojiStreaming();
         LOGGER.info(GlyphManager.MARKER, "Reloaded glyph manager");
         LayoutCache.clear();
     }
@@ -119,13 +148,7 @@ public class FontResourceManager implements PreparableReloadListener {
         CompletableFuture<LoadResults> preparation;
         {
             final var results = new LoadResults();
-            final var loadEmojis = CompletableFuture.runAsync(() ->
-                            loadEmojis(resourceManager, results),
-                    preparationExecutor);
-            final var loadShortcodes = CompletableFuture.runAsync(() ->
-                            loadShortcodes(resourceManager, results),
-                    preparationExecutor);
-            preparation = CompletableFuture.allOf(loadEmojis, loadShortcodes)
+            preparation = loadEmojiResources(resourceManager, results, preparationExecutor)
                     .thenApply(__ -> results);
         }
         preparationProfiler.endTick();
@@ -142,15 +165,17 @@ public class FontResourceManager implements PreparableReloadListener {
 
     public static class LoadResults {
         public volatile EmojiFont mEmojiFont;
+        public volatile List<String> mEmojiFiles;
         public volatile Map<String, String> mEmojiShortcodes;
+        public volatile EmojiShortcodeTrie mEmojiShortcodeTrie;
     }
 
     // SYNC
     protected void applyResources(@Nonnull LoadResults results) {
         // reload emojis
         mEmojiFont = results.mEmojiFont;
-        mEmojiShortcodes.clear();
-        mEmojiShortcodes.putAll(results.mEmojiShortcodes);
+        mEmojiFiles = results.mEmojiFiles != null ? results.mEmojiFiles : Collections.emptyList();
+        mEmojiShortcodes = results.mEmojiShortcodeTrie;
         // reload the whole engine
         ModernUIClient.getInstance().reloadTypeface();
         reloadAll();
@@ -160,6 +185,21 @@ public class FontResourceManager implements PreparableReloadListener {
     public void close() {
     }
 
+    // ASYNC
+    protected static CompletableFuture<Void> loadEmojiResources(@Nonnull ResourceManager resources,
+                                                                @Nonnull LoadResults results,
+                                                                @Nonnull Executor executor) {
+        final var loadEmojis = CompletableFuture.runAsync(() ->
+                        loadEmojis(resources, results),
+                executor);
+        final var loadShortcodes = CompletableFuture.runAsync(() ->
+                        loadShortcodes(resources, results),
+                executor);
+        return CompletableFuture.allOf(loadEmojis, loadShortcodes)
+                .thenRun(() -> results.mEmojiShortcodeTrie =
+                        new EmojiShortcodeTrie(results.mEmojiShortcodes));
+    }
+
     // ASYNC
     protected static void loadEmojis(@Nonnull ResourceManager resources,
                                      @Nonnull LoadResults results) {
@@ -220,6 +260,7 @@ public class FontResourceManager implements PreparableReloadListener {
                     GlyphManager.EMOJI_SPACING,
                     GlyphManager.EMOJI_BASE,
                     map, files);
+            results.mEmojiFiles = files;
         } else {
             LOGGER.info(GlyphManager.MARKER, "No Emoji font was found");
         }
@@ -273,6 +314,103 @@ public class FontResourceManager implements PreparableReloadListener {
         return mEmojiFont;
     }
 
+    /**
+     * Checks whether the given emoji glyph is in the color atlas, or can be inserted in this
+     * frame. If the emoji is seen for the first time, its PNG is read asynchronously and
+     * this method returns false until the data is ready and the frame budget allows.
+     *
+     * @param glyphId the emoji glyph ID, 1-based
+     * @return true to lookup the glyph from glyph manager now
+     */
+    @RenderThread
+    public boolean acquireEmoji(int glyphId) {
+        if (mEmojiInserted.contains(glyphId)) {
+            return true;
+        }
+        if (glyphId <= 0 || glyphId > mEmojiFiles.size()) {
+            // let the glyph manager handle it
+            return true;
+        }
+        final String path = getEmojiPath(glyphId);
+        if (mEmojiRequested.add(glyphId)) {
+            CompletableFuture.runAsync(() -> {
+                byte[] data;
+                try (var stream = Minecraft.getInstance().getResourceManager().open(
+                        new ResourceLocation(ModernUI.ID, path))) {
+                    data = stream.readAllBytes();
+                } catch (IOException e) {
+                    LOGGER.warn(GlyphManager.MARKER, "Failed to read emoji {}", path, e);
+                    // empty, the glyph manager will fail on it, then give up
+                    data = new byte[0];
+                }
+                mEmojiData.put(path, data);
+            }, Util.backgroundExecutor());
+            return false;
+        }
+        if (!mEmojiData.containsKey(path)) {
+            // still reading
+            return false;
+        }
+        if (mFrameCount != mEmojiFrame) {
+            mEmojiFrame = mFrameCount;
+            mEmojiUploads = 0;
+        }
+        if (mEmojiUploads >= EMOJI_UPLOADS_PER_FRAME) {
+            return false;
+        }
+        mEmojiUploads++;
+        mEmojiInserted.add(glyphId);
+        return true;
+    }
+
+    /**
+     * Called at the beginning of each frame, this starts a new emoji upload budget.
+     *
+     * @see icyllis.modernui.mc.text.mixin.MixinGameRenderer
+     */
+    @RenderThread
+    public void onRenderFrame() {
+        mFrameCount++;
+    }
+
+    /**
+     * @return true if the emoji is being read or waiting for the frame budget
+     */
+    @RenderThread
+    public boolean isEmojiPending(int glyphId) {
+        return mEmojiRequested.contains(glyphId) && !mEmojiInserted.contains(glyphId);
+    }
+
+    /**
+     * Called when the color atlas is cleared or compacted.
+     */
+    @RenderThread
+    public void resetEmojiStreaming() {
+        mEmojiRequested.clear();
+        mEmojiInserted.clear();
+        mEmojiData.clear();
+    }
+
+    /**
+     * Takes the emoji data that was read by {@link #acquireEmoji(int)}, if any.
+     *
+     * @return the stream or null
+     */
+    @Nullable
+    public static InputStream takeEmojiData(@Nonnull String namespace, @Nonnull String path) {
+        final FontResourceManager instance = sInstance;
+        if (instance == null || !namespace.equals(ModernUI.ID)) {
+            return null;
+        }
+        byte[] data = instance.mEmojiData.remove(path);
+        return data != null ? new ByteArrayInputStream(data) : null;
+    }
+
+    @Nonnull
+    private String getEmojiPath(int glyphId) {
+        return "emoji/" + mEmojiFiles.get(glyphId - 1);
+    }
+
     /**
      * Lookup Emoji char sequence from shortcode.
      *
@@ -284,6 +422,14 @@ public class FontResourceManager implements PreparableReloadListener {
         return mEmojiShortcodes.get(shortcode);
     }
 
+    /**
+     * @return all emoji shortcodes
+     */
+    @Nonnull
+    public EmojiShortcodeTrie getEmojiShortcodes() {
+        return mEmojiShortcodes;
+    }
+
     static class EmojiData {
         static void _populateEmojiFontCoverage_(IntSet c) {
             c.add(0x9);
@@ -21,12 +21,9 @@ package icyllis.modernui.mc.text;
 import com.google.gson.JsonParseException;
 import com.mojang.blaze3d.font.GlyphInfo;
 import com.mojang.blaze3d.font.SheetGlyphInfo;
+import icyllis.arc3d.core.ImageInfo;
 import icyllis.arc3d.core.Strike;
-import icyllis.arc3d.engine.GpuResource;
-import icyllis.arc3d.engine.Surface;
-import icyllis.arc3d.opengl.*;
 import icyllis.modernui.ModernUI;
-import icyllis.modernui.core.Core;
 import icyllis.modernui.graphics.*;
 import icyllis.modernui.graphics.font.*;
 import icyllis.modernui.graphics.text.*;
@@ -35,23 +32,23 @@ import it.unimi.dsi.fastutil.ints.*;
 import net.minecraft.client.gui.font.glyphs.EmptyGlyph;
 import net.minecraft.client.gui.font.providers.BitmapProvider;
 import net.minecraft.resources.ResourceLocation;
-import net.minecraft.server.packs.resources.ResourceManager;
+import org.lwjgl.opengl.GL;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.InputStream;
+import java.io.*;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.function.Function;
 
-import static icyllis.arc3d.opengl.GLCore.*;
+import static org.lwjgl.system.MemoryUtil.*;
 
 /**
  * Directly provides a bitmap (mask format may be RGBA or grayscale) to replace
  * Unicode code points without text shaping. If such a font wins the font itemization,
  * the layout engine will create a ReplacementRun, just like color emojis.
  * <p>
- * The bitmap is just a single texture atlas.
+ * Glyphs are trimmed and packed into the shared {@link BitmapFontAtlas}.
  *
  * @author BloCamLimb
  * @see net.minecraft.client.gui.font.providers.BitmapProvider
@@ -61,11 +58,27 @@ public class BitmapFont implements Font, AutoCloseable {
 
     private final ResourceLocation mName;
 
+    // the encoded PNG, null after decoding
+    private byte[] mData;
     // this is auto GC, null after uploading to texture
     private Bitmap mBitmap;
+    // code points declared in the grid, glyphs are created when first requested
+    private final IntSet mCodePoints = new IntOpenHashSet();
     private final Int2ObjectMap<Glyph> mGlyphs = new Int2ObjectOpenHashMap<>();
+    private volatile boolean mGlyphsLoaded;
 
-    private GLTexture mTexture;
+    private final int[][] mGrid;
+    private final int mWidth;
+    private final int mHeight;
+
+    // uploaded to the shared atlas
+    private boolean mUploaded;
+    /**
+     * Number of channels of the texture: 1 for white glyphs (alpha only), 2 for grayscale
+     * glyphs (gray, alpha), 4 for colored glyphs (RGBA). Single and dual channel textures
+     * are swizzled to RGBA, so shaders see the same colors.
+     */
+    private int mChannels = 4;
 
     private final int mAscent;  // positive
     private final int mDescent; // positive
@@ -74,34 +87,27 @@ public class BitmapFont implements Font, AutoCloseable {
     private final int mSpriteHeight;
     private final float mScaleFactor;
 
-    private BitmapFont(ResourceLocation name, Bitmap bitmap,
-                       int[][] grid, int rows, int cols,
-                       int height, int ascent) {
+    private BitmapFont(ResourceLocation name, @Nullable byte[] data, @Nullable Bitmap bitmap,
+                       int width, int height, int[][] grid, int rows, int cols,
+                       int lineHeight, int ascent) {
         mName = name;
+        mData = data;
         mBitmap = bitmap;
+        mGrid = grid;
+        mWidth = width;
+        mHeight = height;
         mAscent = ascent;
-        mDescent = height - ascent;
-        mSpriteWidth = bitmap.getWidth() / cols;
-        mSpriteHeight = bitmap.getHeight() / rows;
-        mScaleFactor = (float) height / mSpriteHeight;
-
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                int ch = grid[r][c];
+        mDescent = lineHeight - ascent;
+        mSpriteWidth = width / cols;
+        mSpriteHeight = height / rows;
+        mScaleFactor = (float) lineHeight / mSpriteHeight;
+
+        for (int[] row : grid) {
+            for (int ch : row) {
                 if (ch == '\u0000') {
                     continue; // padding
                 }
-                int actualWidth = getActualGlyphWidth(bitmap, mSpriteWidth, mSpriteHeight, c, r);
-                Glyph glyph = new Glyph(Math.round(actualWidth * mScaleFactor) + 1);
-                glyph.x = 0;
-                glyph.y = (short) (-mAscent * TextLayoutEngine.BITMAP_SCALE);
-                glyph.width = (short) Math.round(mSpriteWidth * mScaleFactor * TextLayoutEngine.BITMAP_SCALE);
-                glyph.height = (short) Math.round(mSpriteHeight * mScaleFactor * TextLayoutEngine.BITMAP_SCALE);
-                glyph.u1 = (float) (c * mSpriteWidth) / bitmap.getWidth();
-                glyph.v1 = (float) (r * mSpriteHeight) / bitmap.getHeight();
-                glyph.u2 = (float) (c * mSpriteWidth + mSpriteWidth) / bitmap.getWidth();
-                glyph.v2 = (float) (r * mSpriteHeight + mSpriteHeight) / bitmap.getHeight();
-                if (mGlyphs.put(ch, glyph) != null) {
+                if (!mCodePoints.add(ch)) {
                     ModernUI.LOGGER.warn("Codepoint '{}' declared multiple times in {}",
                             Integer.toHexString(ch), mName);
                 }
@@ -109,8 +115,15 @@ public class BitmapFont implements Font, AutoCloseable {
         }
     }
 
+    /**
+     * Creates a bitmap font, only the PNG header is parsed. The image is decoded and
+     * glyph widths are computed when any glyph is first requested, then the texture is
+     * uploaded on first draw. Fonts that are never used will never be decoded.
+     *
+     * @param data the encoded image of the definition's file, it's kept by the font
+     */
     @Nonnull
-    public static BitmapFont create(BitmapProvider.Definition definition, ResourceManager manager) {
+    public static BitmapFont create(BitmapProvider.Definition definition, @Nonnull byte[] data) {
         int height = definition.height();
         int ascent = definition.ascent();
         if (ascent > height) {
@@ -123,20 +136,108 @@ public class BitmapFont implements Font, AutoCloseable {
         int rows = grid.length;
         int cols = grid[0].length;
         var file = definition.file();
-        var location = file.withPrefix("textures/");
-        try (InputStream stream = manager.open(location)) {
-            //XXX: Minecraft doesn't use texture views, read swizzles may not work,
-            // so we always use RGBA (colored)
-            var opts = new BitmapFactory.Options();
-            opts.inPreferredFormat = Bitmap.Format.RGBA_8888;
-            Bitmap bitmap = BitmapFactory.decodeStream(stream, opts);
-            Objects.requireNonNull(bitmap);
-            return new BitmapFont(file, bitmap, grid, rows, cols, height, ascent);
+        try {
+            long size = readPNGSize(data);
+            if (size != -1) {
+                return new BitmapFont(file, data, null, (int) (size >>> 32), (int) size,
+                        grid, rows, cols, height, ascent);
+            }
+            // not PNG, decode now
+            Bitmap bitmap = decode(data);
+            return new BitmapFont(file, null, bitmap, bitmap.getWidth(), bitmap.getHeight(),
+                    grid, rows, cols, height, ascent);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    // returns (width << 32) | height, or -1 if not PNG
+    private static long readPNGSize(@Nonnull byte[] data) {
+        // signature, IHDR length and type, width, height
+        if (data.length < 24 ||
+                (data[0] & 0xFF) != 0x89 || data[1] != 'P' || data[2] != 'N' || data[3] != 'G' ||
+                data[12] != 'I' || data[13] != 'H' || data[14] != 'D' || data[15] != 'R') {
+            return -1;
+        }
+        int width = ((data[16] & 0xFF) << 24) | ((data[17] & 0xFF) << 16) |
+                ((data[18] & 0xFF) << 8) | (data[19] & 0xFF);
+        int height = ((data[20] & 0xFF) << 24) | ((data[21] & 0xFF) << 16) |
+                ((data[22] & 0xFF) << 8) | (data[23] & 0xFF);
+        if (width <= 0 || height <= 0) {
+            return -1;
+        }
+        return ((long) width << 32) | (height & 0xFFFFFFFFL);
+    }
+
+    @Nonnull
+    private static Bitmap decode(@Nonnull byte[] data) throws IOException {
+        //XXX: Minecraft doesn't use texture views, read swizzles may not work,
+        // so we always decode RGBA (colored), then use texture swizzles when uploading
+        var opts = new BitmapFactory.Options();
+        opts.inPreferredFormat = Bitmap.Format.RGBA_8888;
+        Bitmap bitmap = BitmapFactory.decodeStream(new ByteArrayInputStream(data), opts);
+        return Objects.requireNonNull(bitmap);
+    }
+
+    // decode the bitmap and create glyphs, thread-safe
+    @Nonnull
+    private Int2ObjectMap<Glyph> getGlyphs() {
+        if (!mGlyphsLoaded) {
+            synchronized (this) {
+                if (!mGlyphsLoaded) {
+                    loadGlyphs();
+                    mGlyphsLoaded = true;
+                }
+            }
+        }
+        return mGlyphs;
+    }
+
+    private void loadGlyphs() {
+        if (mBitmap == null) {
+            if (mData == null) {
+                // closed
+                return;
+            }
+            try {
+                mBitmap = decode(mData);
+            } catch (Exception e) {
+                ModernUI.LOGGER.error(GlyphManager.MARKER, "Failed to decode bitmap font {}", mName, e);
+                return;
+            } finally {
+                mData = null;
+            }
+            if (mBitmap.getWidth() != mWidth || mBitmap.getHeight() != mHeight) {
+                ModernUI.LOGGER.error(GlyphManager.MARKER, "Bitmap font {} size mismatch", mName);
+                mBitmap.close();
+                mBitmap = null;
+                return;
+            }
+        }
+        final Bitmap bitmap = mBitmap;
+        mChannels = computeChannels(bitmap);
+        for (int r = 0; r < mGrid.length; r++) {
+            for (int c = 0; c < mGrid[r].length; c++) {
+                int ch = mGrid[r][c];
+                if (ch == '\u0000') {
+                    continue; // padding
+                }
+                int actualWidth = getActualGlyphWidth(bitmap, mSpriteWidth, mSpriteHeight, c, r);
+                Glyph glyph = new Glyph(Math.round(actualWidth * mScaleFactor) + 1);
+                glyph.x = 0;
+                glyph.y = (short) (-mAscent * TextLayoutEngine.BITMAP_SCALE);
+                // trimmed to the actual width, the right part is transparent
+                glyph.width = (short) Math.round(actualWidth * mScaleFactor * TextLayoutEngine.BITMAP_SCALE);
+                glyph.height = (short) Math.round(mSpriteHeight * mScaleFactor * TextLayoutEngine.BITMAP_SCALE);
+                // the area in the bitmap, replaced with the area in atlas when uploading
+                glyph.srcX = c * mSpriteWidth;
+                glyph.srcY = r * mSpriteHeight;
+                glyph.srcWidth = actualWidth;
+                mGlyphs.put(ch, glyph);
+            }
+        }
+    }
+
     private static int getActualGlyphWidth(Bitmap bitmap, int width, int height, int col, int row) {
         int i;
         for (i = width - 1; i >= 0; i--) {
@@ -152,50 +253,93 @@ public class BitmapFont implements Font, AutoCloseable {
         return i + 1;
     }
 
-    // create texture from bitmap on render thread
-    private void createTextureLazy() {
+    // the minimum number of channels that can represent the RGBA bitmap
+    private static int computeChannels(@Nonnull Bitmap bitmap) {
+        boolean white = true;
+        for (int y = 0, h = bitmap.getHeight(); y < h; y++) {
+            for (int x = 0, w = bitmap.getWidth(); x < w; x++) {
+                int argb = bitmap.getPixelARGB(x, y);
+                if (argb >>> 24 == 0) {
+                    continue;
+                }
+                int r = (argb >> 16) & 0xFF;
+                if (r != ((argb >> 8) & 0xFF) || r != (argb & 0xFF)) {
+                    return 4;
+                }
+                white &= r == 0xFF;
+            }
+        }
+        return white ? 1 : 2;
+    }
+
+    // upload glyphs to the shared atlas on render thread
+    private void uploadGlyphs() {
+        final int width = mBitmap.getWidth();
+        final int height = mBitmap.getHeight();
+        final var caps = GL.getCapabilities();
+        final int channels = caps.OpenGL33 || caps.GL_ARB_texture_swizzle
+                ? mChannels
+                : (mChannels = 4);
+        long pixels = NULL;
         try {
-            mTexture = (GLTexture) Core
-                    .requireDirectContext()
-                    .getResourceProvider()
-                    .createTexture(
-                            mBitmap.getWidth(),
-                            mBitmap.getHeight(),
-                            GLBackendFormat.make(GL_RGBA8),
-                            1,
-                            Surface.FLAG_BUDGETED,
-                            mBitmap.getColorType(),
-                            mBitmap.getColorType(),
-                            mBitmap.getRowBytes(),
-                            mBitmap.getAddress(),
-                            mName.toString()
-                    );
-            Objects.requireNonNull(mTexture, "Failed to create font texture");
-
-            int boundTexture = glGetInteger(GL_TEXTURE_BINDING_2D);
-            glBindTexture(GL_TEXTURE_2D, mTexture.getHandle());
-
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-
-            glBindTexture(GL_TEXTURE_2D, boundTexture);
+            final int colorType;
+            final int rowBytes;
+            final long address;
+            if (channels == 4) {
+                colorType = mBitmap.getColorType();
+                rowBytes = mBitmap.getRowBytes();
+                address = mBitmap.getAddress();
+            } else {
+                // take alpha, and gray if any, from RGBA
+                colorType = channels == 1 ? ImageInfo.CT_R_8 : ImageInfo.CT_RG_88;
+                rowBytes = width * channels;
+                pixels = nmemAllocChecked((long) rowBytes * height);
+                final long src = mBitmap.getAddress();
+                final int srcRowBytes = mBitmap.getRowBytes();
+                for (int y = 0; y < height; y++) {
+                    long s = src + (long) y * srcRowBytes;
+                    long d = pixels + (long) y * rowBytes;
+                    for (int x = 0; x < width; x++, s += 4, d += channels) {
+                        if (channels == 1) {
+                            memPutByte(d, memGetByte(s + 3));
+                        } else {
+                            memPutByte(d, memGetByte(s));
+                            memPutByte(d + 1, memGetByte(s + 3));
+                        }
+                    }
+                }
+                address = pixels;
+            }
+            final int bpp = channels; // RGBA_8888 or converted
+            final BitmapFontAtlas atlas = BitmapFontAtlas.getInstance();
+            final int[] loc = new int[2];
+            for (Glyph glyph : mGlyphs.values()) {
+                final int srcWidth = glyph.srcWidth;
+                final BitmapFontAtlas.Page page = atlas.allocate(this, channels,
+                        srcWidth, mSpriteHeight, loc);
+                if (srcWidth > 0) {
+                    page.write(loc[0], loc[1], srcWidth, mSpriteHeight, colorType, rowBytes,
+                            address + (long) glyph.srcY * rowBytes + (long) glyph.srcX * bpp);
+                }
+                final float size = page.getSize();
+                glyph.texture = page.getTexture();
+                glyph.u1 = loc[0] / size;
+                glyph.v1 = loc[1] / size;
+                glyph.u2 = (loc[0] + srcWidth) / size;
+                glyph.v2 = (loc[1] + mSpriteHeight) / size;
+            }
         } finally {
+            nmemFree(pixels);
             mBitmap.close();
             mBitmap = null;
+            mUploaded = true;
         }
     }
 
-    public void dumpAtlas(String path) {
+    public void dumpInfo() {
         ModernUI.LOGGER.info(GlyphManager.MARKER,
-                "BitmapFont: {}, glyphs: {}, texture: {}",
-                mName, mGlyphs.size(), mTexture);
-        if (path != null && mTexture != null && Core.isOnRenderThread()) {
-            GLFontAtlas.dumpAtlas(
-                    (GLCaps) Core.requireDirectContext().getCaps(),
-                    mTexture,
-                    Bitmap.Format.RGBA_8888,
-                    path);
-        }
+                "BitmapFont: {}, glyphs: {}, channels: {}, uploaded: {}",
+                mName, mCodePoints.size(), mChannels, mUploaded);
     }
 
     @Override
@@ -222,9 +366,9 @@ public class BitmapFont implements Font, AutoCloseable {
     // Render thread only
     @Nullable
     public Glyph getGlyph(int ch) {
-        Glyph glyph = mGlyphs.get(ch);
+        Glyph glyph = getGlyphs().get(ch);
         if (glyph != null && mBitmap != null) {
-            createTextureLazy();
+            uploadGlyphs();
             assert mBitmap == null;
         }
         return glyph;
@@ -232,11 +376,7 @@ public class BitmapFont implements Font, AutoCloseable {
 
     @Nullable
     public Glyph getGlyphInfo(int ch) {
-        return mGlyphs.get(ch);
-    }
-
-    public int getCurrentTexture() {
-        return mTexture != null ? mTexture.getHandle() : 0;
+        return getGlyphs().get(ch);
     }
 
     public int getAscent() {
@@ -261,7 +401,7 @@ public class BitmapFont implements Font, AutoCloseable {
 
     @Override
     public boolean hasGlyph(int ch, int vs) {
-        return mGlyphs.containsKey(ch);
+        return mCodePoints.contains(ch);
     }
 
     @Override
@@ -364,17 +504,30 @@ public class BitmapFont implements Font, AutoCloseable {
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
+        mData = null;
         if (mBitmap != null) {
             mBitmap.close();
             mBitmap = null;
         }
-        mTexture = GpuResource.move(mTexture);
+        if (mUploaded) {
+            BitmapFontAtlas.getInstance().release(this);
+            mUploaded = false;
+        }
     }
 
     public static class Glyph extends BakedGlyph implements GlyphInfo {
 
         public final float advance;
+        /**
+         * The texture of the atlas page, 0 if not uploaded yet.
+         */
+        public int texture;
+
+        // the area in the source bitmap
+        int srcX;
+        int srcY;
+        int srcWidth;
 
         public Glyph(int advance) {
             this.advance = advance;
@@ -0,0 +1,265 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import icyllis.arc3d.engine.GpuResource;
+import icyllis.arc3d.engine.Surface;
+import icyllis.arc3d.opengl.*;
+import icyllis.modernui.ModernUI;
+import icyllis.modernui.annotation.RenderThread;
+import icyllis.modernui.core.Core;
+import icyllis.modernui.graphics.Bitmap;
+import icyllis.modernui.graphics.font.GlyphManager;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+import static icyllis.arc3d.opengl.GLCore.*;
+
+/**
+ * Shared texture atlas of all bitmap fonts. Glyphs are trimmed to their actual width and
+ * packed into a few pages, so text mixing several bitmap fonts can be drawn with one
+ * texture binding (and render type). Pages are separated by the number of channels,
+ * see {@link BitmapFont}.
+ * <p>
+ * Packed areas are never reused, a page is deleted when all the fonts on it are closed.
+ *
+ * @author BloCamLimb
+ * @since 3.9
+ */
+@RenderThread
+public final class BitmapFontAtlas {
+
+    public static final int PAGE_SIZE = 1024;
+    // padding between glyphs, avoid bleeding
+    private static final int PADDING = 1;
+
+    private static final BitmapFontAtlas sInstance = new BitmapFontAtlas();
+
+    // index 0, 1, 2 for 1, 2, 4 channels
+    @SuppressWarnings("unchecked")
+    private final ArrayList<Page>[] mPages = new ArrayList[]{
+            new ArrayList<>(), new ArrayList<>(), new ArrayList<>()
+    };
+
+    private BitmapFontAtlas() {
+    }
+
+    @Nonnull
+    public static BitmapFontAtlas getInstance() {
+        return sInstance;
+    }
+
+    private static int pageIndex(int channels) {
+        return switch (channels) {
+            case 1 -> 0;
+            case 2 -> 1;
+            default -> 2;
+        };
+    }
+
+    /**
+     * Allocates an area for a glyph of the given font.
+     *
+     * @param font     the font that uses the page
+     * @param channels the number of channels, 1, 2 or 4
+     * @param width    the width in pixels, may be 0
+     * @param height   the height in pixels, may be 0
+     * @param loc      receives the x and y of the area in the page
+     * @return the page
+     */
+    @Nonnull
+    public Page allocate(@Nonnull BitmapFont font, int channels,
+                         int width, int height, int[] loc) {
+        final var pages = mPages[pageIndex(channels)];
+        Page page = null;
+        if (width == 0 || height == 0) {
+            loc[0] = loc[1] = 0;
+            if (!pages.isEmpty()) {
+                page = pages.get(pages.size() - 1);
+            }
+        } else {
+            for (int i = pages.size() - 1; i >= 0; i--) {
+                if (pages.get(i).pack(width + PADDING, height + PADDING, loc)) {
+                    page = pages.get(i);
+                    break;
+                }
+            }
+        }
+        if (page == null) {
+            int size = PAGE_SIZE;
+            while (size < width + PADDING || size < height + PADDING) {
+                size <<= 1;
+            }
+            page = new Page(channels, size);
+            pages.add(page);
+            if (width != 0 && height != 0) {
+                boolean packed = page.pack(width + PADDING, height + PADDING, loc);
+                assert packed;
+            }
+        }
+        page.mFonts.add(font);
+        return page;
+    }
+
+    /**
+     * Releases all areas of the given font, pages that are no longer used are deleted.
+     */
+    public void release(@Nonnull BitmapFont font) {
+        for (var pages : mPages) {
+            for (var it = pages.iterator(); it.hasNext(); ) {
+                var page = it.next();
+                if (page.mFonts.remove(font) && page.mFonts.isEmpty()) {
+                    page.close();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void dumpInfo(String basePath) {
+        int index = 0;
+        for (var pages : mPages) {
+            for (var page : pages) {
+                ModernUI.LOGGER.info(GlyphManager.MARKER,
+                        "BitmapFontAtlas page: channels: {}, size: {}, fonts: {}, texture: {}",
+                        page.mChannels, page.mSize, page.mFonts.size(), page.mTexture);
+                if (basePath != null && page.mTexture != null && Core.isOnRenderThread()) {
+                    GLFontAtlas.dumpAtlas(
+                            (GLCaps) Core.requireDirectContext().getCaps(),
+                            page.mTexture,
+                            switch (page.mChannels) {
+                                case 1 -> Bitmap.Format.GRAY_8;
+                                case 2 -> Bitmap.Format.GRAY_ALPHA_88;
+                                default -> Bitmap.Format.RGBA_8888;
+                            },
+                            basePath + "_page" + index + ".png");
+                }
+                index++;
+            }
+        }
+    }
+
+    /**
+     * A page is a texture packed with shelves, glyphs of a bitmap font generally have the
+     * same height, then they are placed in the same shelf.
+     */
+    public static final class Page {
+
+        private final int mChannels;
+        private final int mSize;
+        private GLTexture mTexture;
+
+        // y, height and used width of each shelf
+        private final IntArrayList mShelves = new IntArrayList();
+        private int mNextY;
+
+        private final Set<BitmapFont> mFonts = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Page(int channels, int size) {
+            mChannels = channels;
+            mSize = size;
+            mTexture = (GLTexture) Core
+                    .requireDirectContext()
+                    .getResourceProvider()
+                    .createTexture(
+                            size, size,
+                            GLBackendFormat.make(switch (channels) {
+                                case 1 -> GL_R8;
+                                case 2 -> GL_RG8;
+                                default -> GL_RGBA8;
+                            }),
+                            1,
+                            Surface.FLAG_BUDGETED,
+                            "BitmapFontAtlas"
+                    );
+            Objects.requireNonNull(mTexture, "Failed to create font atlas");
+
+            int boundTexture = glGetInteger(GL_TEXTURE_BINDING_2D);
+            glBindTexture(GL_TEXTURE_2D, mTexture.getHandle());
+
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+
+            if (channels == 1) {
+                glTexParameteriv(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_RGBA,
+                        new int[]{GL_ONE, GL_ONE, GL_ONE, GL_RED});
+            } else if (channels == 2) {
+                glTexParameteriv(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_RGBA,
+                        new int[]{GL_RED, GL_RED, GL_RED, GL_GREEN});
+            }
+
+            glBindTexture(GL_TEXTURE_2D, boundTexture);
+        }
+
+        boolean pack(int width, int height, int[] loc) {
+            if (width > mSize) {
+                return false;
+            }
+            // find the best fitting shelf
+            int best = -1;
+            for (int i = 0; i < mShelves.size(); i += 3) {
+                int shelfHeight = mShelves.getInt(i + 1);
+                if (shelfHeight >= height && mShelves.getInt(i + 2) + width <= mSize &&
+                        (best == -1 || shelfHeight < mShelves.getInt(best + 1))) {
+                    best = i;
+                }
+            }
+            if (best == -1) {
+                if (mNextY + height > mSize) {
+                    return false;
+                }
+                best = mShelves.size();
+                mShelves.add(mNextY);
+                mShelves.add(height);
+                mShelves.add(0);
+                mNextY += height;
+            }
+            loc[0] = mShelves.getInt(best + 2);
+            loc[1] = mShelves.getInt(best);
+            mShelves.set(best + 2, loc[0] + width);
+            return true;
+        }
+
+        /**
+         * Upload pixels to the given area.
+         */
+        public void write(int x, int y, int width, int height,
+                          int colorType, int rowBytes, long pixels) {
+            Core.requireDirectContext().getDevice().writePixels(
+                    mTexture, x, y, width, height,
+                    colorType, colorType,
+                    rowBytes, pixels
+            );
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        public int getTexture() {
+            return mTexture != null ? mTexture.getHandle() : 0;
+        }
+
+        void close() {
+            mTexture = GpuResource.move(mTexture);
+        }
+    }
+}
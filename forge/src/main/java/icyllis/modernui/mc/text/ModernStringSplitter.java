@@ -31,6 +31,7 @@ import org.apache.commons.lang3.mutable.MutableObject;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Optional;
 import java.util.function.BiConsumer;
 
@@ -214,22 +215,12 @@ public final class ModernStringSplitter extends StringSplitter {
         final int limit = layout.getCharCount();
         if (forwards) {
             // TruncateAt.END
-            int i = 0;
-            while (i < limit) {
-                width -= layout.getAdvances()[i];
-                if (width < 0.0f) break;
-                i++;
-            }
+            int i = layout.getOffsetForAdvance(width);
             while (i > 0 && layout.getTextBuf()[i - 1] == ' ') i--;
             return i;
         } else {
             // TruncateAt.START
-            int i = limit - 1;
-            while (i >= 0) {
-                width -= layout.getAdvances()[i];
-                if (width < 0.0f) break;
-                i--;
-            }
+            int i = layout.getOffsetForAdvanceFromEnd(width) - 1;
             while (i < limit - 1 && (layout.getTextBuf()[i + 1] == ' ' || layout.getAdvances()[i + 1] == 0.0f)) {
                 i++;
             }
@@ -515,61 +506,53 @@ public final class ModernStringSplitter extends StringSplitter {
             }
         }
 
-        // ignore styles generated from formatting codes
-        final LineProcessor lineBreaker = new LineProcessor(width);
-        final int end = layout.getCharCount();
-
-        int nextBoundaryIndex = 0;
-        int paraEnd;
-        for (int paraStart = 0; paraStart < end; paraStart = paraEnd) {
-            paraEnd = -1;
-            for (int i = paraStart; i < end; i++)
-                if (buf[i] == '\n') {
-                    paraEnd = i;
-                    break;
+        LineBreaks lineBreaks = getLineBreaks(layout, buf, width);
+        if (!base.equals(lineBreaks.base())) {
+            // map break points to string indices and resolve line styles
+            final int[] result = lineBreaks.breakPoints();
+            final ArrayList<Style> lineStyles = new ArrayList<>(result.length);
+            final IntArrayList lineEnds = new IntArrayList(result.length);
+
+            int mStripIndex = 0;
+
+            int mBreakOffsetIndex = 0;
+            int mBreakPointOffset = result[mBreakOffsetIndex++];
+
+            Style currStyle = base;
+            Style lastStyle = base;
+            for (int i = 0, e = text.length(); i < e; i++) {
+                char c = text.charAt(i);
+                if (c == ChatFormatting.PREFIX_CODE) {
+                    i++;
+                    ChatFormatting formatting = MuiModApi.getFormattingByCode(text.charAt(i));
+                    if (formatting != null) {
+                        currStyle = formatting == ChatFormatting.RESET ? base :
+                                currStyle.applyLegacyFormat(formatting);
+                    }
+                    continue;
+                }
+                // End index is exclusive, so ++index not index++
+                if (++mStripIndex >= mBreakPointOffset) {
+                    lineStyles.add(lastStyle);
+                    lineEnds.add(i + 1);
+                    lastStyle = currStyle;
+                    if (mBreakOffsetIndex >= result.length) {
+                        break;
+                    }
+                    mBreakPointOffset = result[mBreakOffsetIndex++];
                 }
-            if (paraEnd < 0) {
-                // No LINE_FEED(U+000A) character found. Use end of the text as the paragraph
-                // end.
-                paraEnd = end;
-            } else {
-                paraEnd++;  // Includes LINE_FEED(U+000A) to the prev paragraph.
             }
-
-            nextBoundaryIndex = lineBreaker.process(layout, buf, paraStart, paraEnd, nextBoundaryIndex);
+            lineBreaks = new LineBreaks(width, result, base,
+                    lineStyles.toArray(new Style[0]), lineEnds.toIntArray());
+            layout.mLineBreaks = lineBreaks;
         }
 
-        final IntList result = lineBreaker.mBreakPoints;
-
-        int mStripIndex = 0;
-
-        int mBreakOffsetIndex = 0;
-        int mBreakPointOffset = result.getInt(mBreakOffsetIndex++);
-
-        Style currStyle = base;
-        Style lastStyle = base;
+        final Style[] lineStyles = lineBreaks.lineStyles();
+        final int[] lineEnds = lineBreaks.lineEnds();
         int lastSubPos = 0;
-        for (int i = 0, e = text.length(); i < e; i++) {
-            char c = text.charAt(i);
-            if (c == ChatFormatting.PREFIX_CODE) {
-                i++;
-                ChatFormatting formatting = MuiModApi.getFormattingByCode(text.charAt(i));
-                if (formatting != null) {
-                    currStyle = formatting == ChatFormatting.RESET ? base :
-                            currStyle.applyLegacyFormat(formatting);
-                }
-                continue;
-            }
-            // End index is exclusive, so ++index not index++
-            if (++mStripIndex >= mBreakPointOffset) {
-                consumer.accept(lastStyle, lastSubPos, i + 1);
-                lastSubPos = i + 1;
-                lastStyle = currStyle;
-                if (mBreakOffsetIndex >= result.size()) {
-                    break;
-                }
-                mBreakPointOffset = result.getInt(mBreakOffsetIndex++);
-            }
+        for (int i = 0; i < lineEnds.length; i++) {
+            consumer.accept(lineStyles[i], lastSubPos, lineEnds[i]);
+            lastSubPos = lineEnds[i];
         }
     }
 
@@ -607,38 +590,16 @@ public final class ModernStringSplitter extends StringSplitter {
             }
         }
 
-        // ignore styles generated from formatting codes
-        final LineProcessor lineBreaker = new LineProcessor(width);
-        final int end = layout.getCharCount();
-
-        int nextBoundaryIndex = 0;
-        int paraEnd;
-        for (int paraStart = 0; paraStart < end; paraStart = paraEnd) {
-            paraEnd = -1;
-            for (int i = paraStart; i < end; i++)
-                if (buf[i] == '\n') {
-                    paraEnd = i;
-                    break;
-                }
-            if (paraEnd < 0) {
-                // No LINE_FEED(U+000A) character found. Use end of the text as the paragraph
-                // end.
-                paraEnd = end;
-            } else {
-                paraEnd++;  // Includes LINE_FEED(U+000A) to the prev paragraph.
-            }
-
-            nextBoundaryIndex = lineBreaker.process(layout, buf, paraStart, paraEnd, nextBoundaryIndex);
-        }
 
-        final IntList result = lineBreaker.mBreakPoints;
+        // the components must be created from the given text, only break points are reused
+        final int[] result = getLineBreaks(layout, buf, width).breakPoints();
 
         class LineBreakVisitor implements FormattedText.StyledContentConsumer<Unit> {
             private ComponentCollector mCollector = new ComponentCollector();
             private int mStripIndex = 0;
 
             private int mBreakOffsetIndex = 0;
-            private int mBreakPointOffset = result.getInt(mBreakOffsetIndex++);
+            private int mBreakPointOffset = result[mBreakOffsetIndex++];
 
             private boolean mNonNewPara = false;
 
@@ -666,13 +627,13 @@ public final class ModernStringSplitter extends StringSplitter {
                             mCollector.append(FormattedText.of(substring, lastStyle));
                         }
                         consumer.accept(mCollector.getResultOrEmpty(), mNonNewPara);
-                        if (mBreakOffsetIndex >= result.size()) {
+                        if (mBreakOffsetIndex >= result.length) {
                             return FormattedText.STOP_ITERATION;
                         }
                         lastSubPos = i + 1;
                         lastStyle = currStyle;
                         mCollector = new ComponentCollector();
-                        mBreakPointOffset = result.getInt(mBreakOffsetIndex++);
+                        mBreakPointOffset = result[mBreakOffsetIndex++];
                         mNonNewPara = c != '\n';
                     }
                 }
@@ -686,6 +647,60 @@ public final class ModernStringSplitter extends StringSplitter {
         text.visit(new LineBreakVisitor(), base);
     }
 
+    /**
+     * Returns the line break points of the layout at the given width. The result of the last
+     * width is memoized in the layout, so it is evicted together with the layout.
+     */
+    @Nonnull
+    private static LineBreaks getLineBreaks(@Nonnull TextLayout layout, @Nonnull char[] buf, float width) {
+        LineBreaks lineBreaks = layout.mLineBreaks;
+        if (lineBreaks != null && lineBreaks.width() == width) {
+            return lineBreaks;
+        }
+        // ignore styles generated from formatting codes
+        final LineProcessor lineBreaker = new LineProcessor(width);
+        final int end = layout.getCharCount();
+
+        int nextBoundaryIndex = 0;
+        int paraEnd;
+        for (int paraStart = 0; paraStart < end; paraStart = paraEnd) {
+            paraEnd = -1;
+            for (int i = paraStart; i < end; i++)
+                if (buf[i] == '\n') {
+                    paraEnd = i;
+                    break;
+                }
+            if (paraEnd < 0) {
+                // No LINE_FEED(U+000A) character found. Use end of the text as the paragraph
+                // end.
+                paraEnd = end;
+            } else {
+                paraEnd++;  // Includes LINE_FEED(U+000A) to the prev paragraph.
+            }
+
+            nextBoundaryIndex = lineBreaker.process(layout, buf, paraStart, paraEnd, nextBoundaryIndex);
+        }
+
+        lineBreaks = new LineBreaks(width, lineBreaker.mBreakPoints.toIntArray(),
+                null, null, null);
+        layout.mLineBreaks = lineBreaks;
+        return lineBreaks;
+    }
+
+    /**
+     * Memoized line break result of a layout.
+     *
+     * @param width       the width limit of the line
+     * @param breakPoints strip indices (without formatting codes) of line ends, the last value is
+     *                    always the text length
+     * @param base        the base style that the following values are resolved from, vanilla only
+     * @param lineStyles  the base style of each line, vanilla only
+     * @param lineEnds    string indices (with formatting codes) of line ends, vanilla only
+     */
+    record LineBreaks(float width, @Nonnull int[] breakPoints, @Nullable Style base,
+                      @Nullable Style[] lineStyles, @Nullable int[] lineEnds) {
+    }
+
     public static class LineProcessor {
 
         private float mLineWidth;
@@ -21,7 +21,6 @@ package icyllis.modernui.mc.text;
 import icyllis.modernui.graphics.MathUtil;
 import net.minecraft.client.gui.Font;
 import net.minecraft.client.renderer.MultiBufferSource;
-import net.minecraft.client.renderer.Sheets;
 import net.minecraft.network.chat.CommonComponents;
 import net.minecraft.network.chat.FormattedText;
 import net.minecraft.util.FormattedCharSequence;
@@ -29,6 +28,7 @@ import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Modern Text Engine designed for Minecraft text rendering system.
@@ -79,10 +79,20 @@ public final class ModernTextRenderer {
 
     private final TextLayoutEngine mEngine;
 
+    private final WorldTextBatcher mWorldTextBatcher = new WorldTextBatcher(this);
+
     public ModernTextRenderer(TextLayoutEngine engine) {
         mEngine = engine;
     }
 
+    /**
+     * @return the batcher of in-world text
+     */
+    @Nonnull
+    public WorldTextBatcher getWorldTextBatcher() {
+        return mWorldTextBatcher;
+    }
+
     public float drawText(@Nonnull String text, float x, float y, int color, boolean dropShadow,
                           @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source, Font.DisplayMode displayMode,
                           int colorBackground, int packedLight) {
@@ -90,46 +100,70 @@ public final class ModernTextRenderer {
             return x;
         }
 
-        // ensure alpha, color can be ARGB, or can be RGB
-        // we check if alpha <= 1, then make alpha = 255 (fully opaque)
-        /*if ((color & 0xfe000000) == 0) {
-            color |= 0xff000000;
-        }*/
+        return drawText(mEngine.lookupVanillaLayout(text), text, x, y, color, dropShadow,
+                matrix, source, displayMode, colorBackground, packedLight);
+    }
 
-        int a = color >>> 24;
-        if (a <= 1) a = 255;
-        int r = color >> 16 & 0xff;
-        int g = color >> 8 & 0xff;
-        int b = color & 0xff;
+    /**
+     * Draw a vanilla layout that is looked up with the given string.
+     *
+     * @param layout the layout of the text
+     * @param text   the text, see {@link TextLayout#drawText(Matrix4f, MultiBufferSource, String, float, float,
+     *               int, int, int, int, boolean, int, boolean, int, int)}
+     * @see TextLayoutEngine#lookupVanillaLayout(String)
+     */
+    public float drawText(@Nonnull TextLayout layout, @Nonnull String text,
+                          float x, float y, int color, boolean dropShadow,
+                          @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source, Font.DisplayMode displayMode,
+                          int colorBackground, int packedLight) {
+        return drawOrBatch(layout, text, x, y, color, dropShadow,
+                matrix, source, displayMode, colorBackground, packedLight);
+    }
 
-        int mode = chooseMode(matrix, displayMode);
-        boolean polygonOffset = displayMode == Font.DisplayMode.POLYGON_OFFSET;
-        TextLayout layout = mEngine.lookupVanillaLayout(text);
-        if (layout.hasColorEmoji() && source instanceof MultiBufferSource.BufferSource) {
-            // performance impact
-            ((MultiBufferSource.BufferSource) source).endBatch(Sheets.signSheet());
-        }
-        if (dropShadow && sAllowShadow) {
-            float offset = sShadowOffset;
-            layout.drawText(matrix, source, x + offset, y + offset, r >> 2, g >> 2, b >> 2, a, true,
-                    mode, polygonOffset, colorBackground, packedLight);
-            matrix = new Matrix4f(matrix); // if not drop shadow, we don't need to copy the matrix
-            matrix.translate(SHADOW_OFFSET);
+    public float drawText(@Nonnull FormattedText text, float x, float y, int color, boolean dropShadow,
+                          @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                          Font.DisplayMode displayMode,
+                          int colorBackground, int packedLight) {
+        if (text == CommonComponents.EMPTY || text == FormattedText.EMPTY) {
+            return x;
         }
 
-        x += layout.drawText(matrix, source, x, y, r, g, b, a, false,
-                mode, polygonOffset, colorBackground, packedLight);
-        return x;
+        return drawOrBatch(mEngine.lookupFormattedLayout(text), null, x, y, color, dropShadow,
+                matrix, source, displayMode, colorBackground, packedLight);
     }
 
-    public float drawText(@Nonnull FormattedText text, float x, float y, int color, boolean dropShadow,
+    public float drawText(@Nonnull FormattedCharSequence text, float x, float y, int color, boolean dropShadow,
                           @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
                           Font.DisplayMode displayMode,
                           int colorBackground, int packedLight) {
-        if (text == CommonComponents.EMPTY || text == FormattedText.EMPTY) {
+        if (text == FormattedCharSequence.EMPTY) {
             return x;
         }
 
+        return drawOrBatch(mEngine.lookupFormattedLayout(text), null, x, y, color, dropShadow,
+                matrix, source, displayMode, colorBackground, packedLight);
+    }
+
+    private float drawOrBatch(@Nonnull TextLayout layout, @Nullable String text,
+                              float x, float y, int color, boolean dropShadow,
+                              @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                              Font.DisplayMode displayMode,
+                              int colorBackground, int packedLight) {
+        if (TextLayoutEngine.sCurrentInWorldRendering && mWorldTextBatcher.isBatching(source)) {
+            // drawn later by the batcher, the advance is known
+            mWorldTextBatcher.add(layout, text, x, y, color, dropShadow,
+                    matrix, displayMode, colorBackground, packedLight);
+            return x + layout.getTotalAdvance();
+        }
+        return drawLayout(layout, text, x, y, color, dropShadow,
+                matrix, source, displayMode, colorBackground, packedLight);
+    }
+
+    float drawLayout(@Nonnull TextLayout layout, @Nullable String text,
+                     float x, float y, int color, boolean dropShadow,
+                     @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                     Font.DisplayMode displayMode,
+                     int colorBackground, int packedLight) {
         // ensure alpha, color can be ARGB, or can be RGB
         // we check if alpha <= 1, then make alpha = 255 (fully opaque)
         /*if ((color & 0xfe000000) == 0) {
@@ -144,62 +178,46 @@ public final class ModernTextRenderer {
 
         int mode = chooseMode(matrix, displayMode);
         boolean polygonOffset = displayMode == Font.DisplayMode.POLYGON_OFFSET;
-        TextLayout layout = mEngine.lookupFormattedLayout(text);
-        if (layout.hasColorEmoji() && source instanceof MultiBufferSource.BufferSource) {
-            // performance impact
-            ((MultiBufferSource.BufferSource) source).endBatch(Sheets.signSheet());
-        }
+        // the layout may be created from another string that differs only in digits
         if (dropShadow && sAllowShadow) {
-            float offset = sShadowOffset;
-            layout.drawText(matrix, source, x + offset, y + offset, r >> 2, g >> 2, b >> 2, a, true,
+            // shadow and text share the glyph lookup, no matrix copy
+            x += layout.drawTextWithShadow(matrix, source, text, x, y, r, g, b, a, sShadowOffset,
+                    mode, polygonOffset, colorBackground, packedLight);
+        } else {
+            x += layout.drawText(matrix, source, text, x, y, r, g, b, a, false,
                     mode, polygonOffset, colorBackground, packedLight);
-            matrix = new Matrix4f(matrix); // if not drop shadow, we don't need to copy the matrix
-            matrix.translate(SHADOW_OFFSET);
         }
-
-        x += layout.drawText(matrix, source, x, y, r, g, b, a, false,
-                mode, polygonOffset, colorBackground, packedLight);
         return x;
     }
 
-    public float drawText(@Nonnull FormattedCharSequence text, float x, float y, int color, boolean dropShadow,
-                          @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
-                          Font.DisplayMode displayMode,
-                          int colorBackground, int packedLight) {
-        if (text == FormattedCharSequence.EMPTY) {
+    /**
+     * Draw a string with a 4-direction outline, like the experience level. The outline and the
+     * text are batched together, no flush is required in between.
+     *
+     * @param outlineColor the outline color, alpha <= 1 means fully opaque
+     * @return the x position after the text
+     * @see TextLayout#drawTextWithOutline(Matrix4f, MultiBufferSource, String, float, float, int, int, int, int,
+     * int, float, int, int)
+     */
+    public float drawTextOutlined(@Nonnull String text, float x, float y, int color, int outlineColor,
+                                  @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                                  Font.DisplayMode displayMode, int packedLight) {
+        if (text.isEmpty()) {
             return x;
         }
 
-        // ensure alpha, color can be ARGB, or can be RGB
-        // we check if alpha <= 1, then make alpha = 255 (fully opaque)
-        /*if ((color & 0xfe000000) == 0) {
-            color |= 0xff000000;
-        }*/
-
         int a = color >>> 24;
         if (a <= 1) a = 255;
         int r = color >> 16 & 0xff;
         int g = color >> 8 & 0xff;
         int b = color & 0xff;
 
-        int mode = chooseMode(matrix, displayMode);
-        boolean polygonOffset = displayMode == Font.DisplayMode.POLYGON_OFFSET;
-        TextLayout layout = mEngine.lookupFormattedLayout(text);
-        if (layout.hasColorEmoji() && source instanceof MultiBufferSource.BufferSource) {
-            // performance impact
-            ((MultiBufferSource.BufferSource) source).endBatch(Sheets.signSheet());
+        if ((outlineColor & 0xfe000000) == 0) {
+            outlineColor |= 0xff000000;
         }
-        if (dropShadow && sAllowShadow) {
-            float offset = sShadowOffset;
-            layout.drawText(matrix, source, x + offset, y + offset, r >> 2, g >> 2, b >> 2, a, true,
-                    mode, polygonOffset, colorBackground, packedLight);
-            matrix = new Matrix4f(matrix); // if not drop shadow, we don't need to copy the matrix
-            matrix.translate(SHADOW_OFFSET);
-        }
-
-        x += layout.drawText(matrix, source, x, y, r, g, b, a, false,
-                mode, polygonOffset, colorBackground, packedLight);
-        return x;
+        int mode = chooseMode(matrix, displayMode);
+        return x + mEngine.lookupVanillaLayout(text).drawTextWithOutline(matrix, source, text, x, y,
+                r, g, b, a, outlineColor, sOutlineOffset, mode, packedLight);
     }
 
     public int chooseMode(Matrix4f ctm, Font.DisplayMode displayMode) {
@@ -285,34 +303,49 @@ public final class ModernTextRenderer {
             return;
         }
 
+        TextLayout layout = mEngine.lookupFormattedLayout(text);
+        if (TextLayoutEngine.sCurrentInWorldRendering && mWorldTextBatcher.isBatching(source)) {
+            mWorldTextBatcher.add8xOutline(layout, x, y, color, outlineColor, matrix, packedLight);
+            return;
+        }
+        drawLayout8xOutline(layout, x, y, color, outlineColor, matrix, source, packedLight);
+    }
+
+    void drawLayoutSilhouette(@Nonnull TextLayout layout, float x, float y, int color,
+                              @Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                              Font.DisplayMode displayMode,
+                              int colorBackground, int packedLight) {
         int a = color >>> 24;
         if (a <= 1) a = 255;
         int r = color >> 16 & 0xff;
         int g = color >> 8 & 0xff;
         int b = color & 0xff;
 
-        TextLayout layout = mEngine.lookupFormattedLayout(text);
-        if (layout.hasColorEmoji() && source instanceof MultiBufferSource.BufferSource) {
-            // performance impact
-            ((MultiBufferSource.BufferSource) source).endBatch(Sheets.signSheet());
-        }
+        layout.drawTextSilhouette(matrix, source, x, y, r, g, b, a,
+                displayMode == Font.DisplayMode.SEE_THROUGH, colorBackground, packedLight);
+    }
 
-        layout.drawText(matrix, source, x, y, r, g, b, a, false,
-                TextRenderType.MODE_SDF_FILL, false, 0, packedLight);
+    void drawLayout8xOutline(@Nonnull TextLayout layout, float x, float y,
+                             int color, int outlineColor, @Nonnull Matrix4f matrix,
+                             @Nonnull MultiBufferSource source, int packedLight) {
+        int a = color >>> 24;
+        if (a <= 1) a = 255;
+        int r = color >> 16 & 0xff;
+        int g = color >> 8 & 0xff;
+        int b = color & 0xff;
 
         if (TextLayoutEngine.sCurrentInWorldRendering && !TextLayoutEngine.sUseTextShadersInWorld) {
+            // no outline
+            layout.drawText(matrix, source, x, y, r, g, b, a, false,
+                    TextRenderType.MODE_SDF_FILL, false, 0, packedLight);
             return;
         }
-        matrix = new Matrix4f(matrix);
-
-        a = outlineColor >>> 24;
-        if (a <= 1) a = 255;
-        r = outlineColor >> 16 & 0xff;
-        g = outlineColor >> 8 & 0xff;
-        b = outlineColor & 0xff;
 
-        matrix.translate(OUTLINE_OFFSET);
-        layout.drawTextOutline(matrix, source, x, y, r, g, b, a, packedLight);
+        if ((outlineColor & 0xfe000000) == 0) {
+            outlineColor |= 0xff000000;
+        }
+        // fill and outline in one pass
+        layout.drawTextFillStroke(matrix, source, null, x, y, r, g, b, a, outlineColor, packedLight);
     }
 
     /*public static void change(boolean global, boolean shadow) {
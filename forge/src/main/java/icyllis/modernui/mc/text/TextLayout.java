@@ -21,9 +21,11 @@ package icyllis.modernui.mc.text;
 import com.mojang.blaze3d.vertex.VertexConsumer;
 import icyllis.modernui.graphics.MathUtil;
 import icyllis.modernui.graphics.font.BakedGlyph;
+import icyllis.modernui.graphics.text.EmojiFont;
 import icyllis.modernui.graphics.text.Font;
 import icyllis.modernui.util.SparseArray;
 import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.resources.ResourceLocation;
 import org.joml.Matrix4f;
 
 import javax.annotation.Nonnull;
@@ -49,7 +51,8 @@ public class TextLayout {
      * This singleton cannot be inserted into the cache!
      */
     public static final TextLayout EMPTY = new TextLayout(new char[0], new int[0], new float[0],
-            null, new Font[0], new float[0], new int[0], new int[]{0}, 0, false, false, 2, ~0) {
+            null, new Font[0], new float[0], new int[0], new int[]{0}, 0, false, false, 2, ~0,
+            null, null, null, false, null) {
         @Nonnull
         @Override
         TextLayout get() {
@@ -63,16 +66,41 @@ public class TextLayout {
 
         @Override
         public float drawText(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
-                              float x, float top, int r, int g, int b, int a, boolean isShadow,
-                              int preferredMode, boolean polygonOffset, int bgColor, int packedLight) {
+                              @Nullable String text, float x, float top, int r, int g, int b, int a,
+                              boolean isShadow, int preferredMode, boolean polygonOffset,
+                              int bgColor, int packedLight) {
             return 0;
         }
 
         @Override
-        public void drawTextOutline(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source, float x, float top,
+        public float drawTextWithShadow(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                                        @Nullable String text, float x, float top, int r, int g, int b, int a,
+                                        float shadowOffset, int preferredMode, boolean polygonOffset,
+                                        int bgColor, int packedLight) {
+            return 0;
+        }
+
+        @Override
+        public float drawTextWithOutline(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                                         @Nullable String text, float x, float top, int r, int g, int b, int a,
+                                         int outlineColor, float outlineOffset, int preferredMode,
+                                         int packedLight) {
+            return 0;
+        }
+
+        @Override
+        public void drawTextOutline(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                                    @Nullable String text, float x, float top,
                                     int r, int g, int b, int a, int packedLight) {
             // noop
         }
+
+        @Override
+        public void drawTextFillStroke(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source,
+                                       @Nullable String text, float x, float top, int r, int g, int b, int a,
+                                       int strokeColor, int packedLight) {
+            // noop
+        }
     };
 
     /**
@@ -85,8 +113,23 @@ public class TextLayout {
      */
     public static float sBaselineOffset = STANDARD_BASELINE_OFFSET;
 
+    /**
+     * Render thread only. Whether to draw underline and strikethrough effects,
+     * this is disabled for distant text by {@link WorldTextBatcher}.
+     */
+    static boolean sDrawEffects = true;
+
+    /**
+     * Non-zero to replace the texture of the standard glyph atlas, the layouts are then
+     * drawn without querying the glyph manager. For rendering tests without a GL context.
+     *
+     * @see #setBakedGlyphs(BakedGlyph[])
+     */
+    static int sStubStandardTexture;
+
     /**
      * The copied text buffer without formatting codes in logical order.
+     * Fast digits are replaced with '0'.
      */
     private final char[] mTextBuf;
 
@@ -99,6 +142,8 @@ public class TextLayout {
     private transient BakedGlyph[] mBakedGlyphs;
     private transient BakedGlyph[] mBakedGlyphsForSDF;
     private transient SparseArray<BakedGlyph[]> mBakedGlyphsArray;
+    // true if the last prepared glyphs have emojis being streamed, then they are not cached
+    private transient boolean mHasPendingGlyphs;
 
     /**
      * Position x1 y1 x2 y2... relative to the same point, for rendering glyphs.
@@ -122,6 +167,19 @@ public class TextLayout {
      */
     private final float[] mAdvances;
 
+    /**
+     * Prefix sums of {@link #mAdvances}, length is one more than the advances, the first
+     * value is always 0. Built lazily on first query.
+     */
+    private transient volatile float[] mPrefixAdvances;
+
+    /**
+     * Memoized line break result of the last queried width.
+     *
+     * @see ModernStringSplitter
+     */
+    transient volatile ModernStringSplitter.LineBreaks mLineBreaks;
+
     /*
      * lower 24 bits - 0xRRGGBB color
      * higher 8 bits
@@ -171,6 +229,39 @@ public class TextLayout {
     final int mCreatedResLevel;
     final int mComputedFlags;
 
+    /**
+     * Glyph indices of fast digits, in visual order, and the indices of the digits in the
+     * raw string (with formatting codes). Fast digit glyphs are laid out as '0', and they
+     * are {@link icyllis.modernui.mc.text.TextLayoutEngine.FastCharSet}. Only for vanilla
+     * layout, all strings that differ only in their digits share the same layout.
+     *
+     * @see VanillaLayoutKey
+     */
+    @Nullable
+    private final int[] mFastDigitGlyphs;
+    @Nullable
+    private final int[] mFastDigitIndices;
+    /**
+     * The raw string that this layout is created from, used when no string is specified
+     * for fast digit replacement.
+     */
+    @Nullable
+    private final String mFastDigitSource;
+    /**
+     * True if some digits could not be laid out as fast digits, because the font doesn't map
+     * them to glyphs one-to-one. They are laid out as they are in {@link #mFastDigitSource},
+     * so this layout is only valid for that string.
+     *
+     * @see #canReplaceDigits(String)
+     */
+    private final boolean mExactDigits;
+    /**
+     * Font names that had no font collection when this layout was created, the fallback
+     * typeface was used instead, null if none.
+     */
+    @Nullable
+    private final ResourceLocation[] mFallbackFontNames;
+
     /**
      * Elapsed time in seconds since last use.
      */
@@ -183,6 +274,7 @@ public class TextLayout {
         mFontIndices = layout.mFontIndices;
         mFonts = layout.mFonts;
         mAdvances = layout.mAdvances;
+        mPrefixAdvances = layout.mPrefixAdvances;
         mGlyphFlags = layout.mGlyphFlags;
         mLineBoundaries = layout.mLineBoundaries;
         mTotalAdvance = layout.mTotalAdvance;
@@ -190,6 +282,11 @@ public class TextLayout {
         mHasColorEmoji = layout.mHasColorEmoji;
         mCreatedResLevel = layout.mCreatedResLevel;
         mComputedFlags = layout.mComputedFlags;
+        mFastDigitGlyphs = layout.mFastDigitGlyphs;
+        mFastDigitIndices = layout.mFastDigitIndices;
+        mFastDigitSource = layout.mFastDigitSource;
+        mExactDigits = layout.mExactDigits;
+        mFallbackFontNames = layout.mFallbackFontNames;
     }
 
     TextLayout(@Nonnull char[] textBuf, @Nonnull int[] glyphs,
@@ -197,7 +294,10 @@ public class TextLayout {
                @Nonnull Font[] fonts, @Nullable float[] advances,
                @Nonnull int[] glyphFlags, @Nullable int[] lineBoundaries,
                float totalAdvance, boolean hasEffect, boolean hasColorEmoji,
-               int createdResLevel, int computedFlags) {
+               int createdResLevel, int computedFlags,
+               @Nullable int[] fastDigitGlyphs, @Nullable int[] fastDigitIndices,
+               @Nullable String fastDigitSource, boolean exactDigits,
+               @Nullable ResourceLocation[] fallbackFontNames) {
         mTextBuf = textBuf;
         mGlyphs = glyphs;
         mPositions = positions;
@@ -211,10 +311,18 @@ public class TextLayout {
         mHasColorEmoji = hasColorEmoji;
         mCreatedResLevel = createdResLevel;
         mComputedFlags = computedFlags;
+        mFastDigitGlyphs = fastDigitGlyphs;
+        mFastDigitIndices = fastDigitIndices;
+        mFastDigitSource = fastDigitSource;
+        mExactDigits = exactDigits;
+        mFallbackFontNames = fallbackFontNames;
         assert mAdvances == null ||
                 mTextBuf.length == mAdvances.length;
         assert mGlyphs.length * 2 == mPositions.length;
         assert mGlyphs.length == mGlyphFlags.length;
+        assert mFastDigitGlyphs == null ||
+                mFastDigitIndices.length == mFastDigitGlyphs.length;
+        assert !mExactDigits || mFastDigitSource != null;
     }
 
     /**
@@ -248,10 +356,23 @@ public class TextLayout {
         return ++mTimer > lifespan;
     }
 
+    /**
+     * Returns whether this layout can draw the given string, which has the same layout key.
+     * This is false if the digits of the string can't be replaced on the fly and differ
+     * from the string that this layout is created from.
+     *
+     * @param text the raw string with formatting codes
+     * @return true if this layout can be used
+     */
+    boolean canReplaceDigits(@Nonnull String text) {
+        return !mExactDigits || text.equals(mFastDigitSource);
+    }
+
     @Nonnull
     private BakedGlyph[] prepareGlyphs(int resLevel, int fontSize) {
         TextLayoutEngine engine = TextLayoutEngine.getInstance();
         BakedGlyph[] glyphs = new BakedGlyph[mGlyphs.length];
+        boolean pending = false;
         for (int i = 0; i < glyphs.length; i++) {
             if ((mGlyphFlags[i] & CharacterStyle.OBFUSCATED_MASK) != 0) {
                 glyphs[i] = engine.lookupFastChars(
@@ -259,28 +380,79 @@ public class TextLayout {
                         resLevel
                 );
             } else {
+                Font font = getFont(i);
                 glyphs[i] = engine.lookupGlyph(
-                        getFont(i),
+                        font,
                         fontSize,
                         mGlyphs[i]
                 );
+                if (glyphs[i] == null && font instanceof EmojiFont) {
+                    pending |= engine.isEmojiPending(mGlyphs[i]);
+                }
+            }
+        }
+        mHasPendingGlyphs = pending;
+        if (mFastDigitGlyphs != null) {
+            for (int i : mFastDigitGlyphs) {
+                glyphs[i] = engine.lookupFastChars(
+                        getFont(i),
+                        resLevel
+                );
             }
         }
         return glyphs;
     }
 
+    /**
+     * Release the baked glyphs, they will be baked again on next render.
+     * Called when the glyph atlases were cleared but the layout is still valid.
+     */
+    void clearBakedGlyphs() {
+        mBakedGlyphs = null;
+        mBakedGlyphsForSDF = null;
+        mBakedGlyphsArray = null;
+    }
+
+    /**
+     * Replace the baked glyphs for all resolution levels except uniform scale, so that
+     * the layout can be drawn without the glyph manager. For rendering tests.
+     *
+     * @param glyphs the glyphs, same indexing with {@link #mGlyphs}
+     */
+    void setBakedGlyphs(@Nonnull BakedGlyph[] glyphs) {
+        assert glyphs.length == mGlyphs.length;
+        mBakedGlyphs = glyphs;
+        mBakedGlyphsForSDF = glyphs;
+        mHasPendingGlyphs = false;
+    }
+
+    private static int getStandardTexture() {
+        return sStubStandardTexture != 0
+                ? sStubStandardTexture
+                : TextLayoutEngine.getInstance().getStandardTexture();
+    }
+
     @Nonnull
     private BakedGlyph[] getGlyphs(int resLevel) {
         if (resLevel == mCreatedResLevel) {
             if (mBakedGlyphs == null) {
                 int fontSize = TextLayoutProcessor.computeFontSize(resLevel);
-                mBakedGlyphs = prepareGlyphs(resLevel, fontSize);
+                BakedGlyph[] glyphs = prepareGlyphs(resLevel, fontSize);
+                if (mHasPendingGlyphs) {
+                    // try again in next frame
+                    return glyphs;
+                }
+                mBakedGlyphs = glyphs;
             }
             return mBakedGlyphs;
         } else {
             if (mBakedGlyphsForSDF == null) {
                 int fontSize = TextLayoutProcessor.computeFontSize(resLevel);
-                mBakedGlyphsForSDF = prepareGlyphs(resLevel, fontSize);
+                BakedGlyph[] glyphs = prepareGlyphs(resLevel, fontSize);
+                if (mHasPendingGlyphs) {
+                    return glyphs;
+                }
+                mBakedGlyphsForSDF = glyphs;
             }
             return mBakedGlyphsForSDF;
         }
@@ -295,23 +467,49 @@ public class TextLayout {
         BakedGlyph[] glyphs = mBakedGlyphsArray.get(fontSize);
         if (glyphs == null) {
             glyphs = prepareGlyphs(mCreatedResLevel, fontSize);
-            mBakedGlyphsArray.put(fontSize, glyphs);
+            if (!mHasPendingGlyphs) {
+                mBakedGlyphsArray.put(fontSize, glyphs);
+            }
         }
         return glyphs;
     }
 
+    /**
+     * Render this text in Minecraft render system.
+     *
+     * @see #drawText(Matrix4f, MultiBufferSource, String, float, float, int, int, int, int, boolean, int, boolean,
+     * int, int)
+     */
+    public float drawText(@Nonnull final Matrix4f matrix,
+                          @Nonnull final MultiBufferSource source,
+                          final float x, final float top,
+                          int r, int g, int b, int a,
+                          final boolean isShadow, int preferredMode,
+                          final boolean polygonOffset,
+                          final int bgColor, final int packedLight) {
+        return drawText(matrix, source, null, x, top, r, g, b, a, isShadow,
+                preferredMode, polygonOffset, bgColor, packedLight);
+    }
+
     /**
      * Render this text in Minecraft render system.
      *
      * @param matrix        the transform matrix
      * @param source        the vertex buffer source
+     * @param text          the raw string to replace fast digits, must have the same layout key,
+     *                      null to use the string that this layout is created from
      * @param x             the left pos of the text line to render
      * @param top           the top of the text line to render
      * @param r             the default red value (0...255, was divided by 4 if isShadow=true)
      * @param g             the default green value (0...255, was divided by 4 if isShadow=true)
      * @param b             the default blue value (0...255, was divided by 4 if isShadow=true)
      * @param a             the alpha value (0...255)
-     * @param isShadow      whether to use a darker color to draw?
+     * @param isShadow      whether to draw the drop shadow, then (x, top) must be the shadow
+     *                      position, that is the text position already offset by
+     *                      {@link ModernTextRenderer#sShadowOffset}, and the color must be
+     *                      already darkened. Vertices are the same as the shadow drawn by
+     *                      {@link #drawTextWithShadow} at the text position, which should be
+     *                      preferred for drawing both
      * @param preferredMode a render mode, normal, see through or SDF
      * @param polygonOffset polygon offset layering requested?
      * @param bgColor       the background color of the text in 0xAARRGGBB format
@@ -320,14 +518,199 @@ public class TextLayout {
      */
     public float drawText(@Nonnull final Matrix4f matrix,
                           @Nonnull final MultiBufferSource source,
+                          @Nullable String text,
                           final float x, final float top,
                           int r, int g, int b, int a,
                           final boolean isShadow, int preferredMode,
                           final boolean polygonOffset,
                           final int bgColor, final int packedLight) {
-        final int startR = r;
-        final int startG = g;
-        final int startB = b;
+        if (isShadow) {
+            // (x, top) is the shadow position, already offset, and the color is already darkened,
+            // quads are prepared at the text position, drawQuads() applies the shadow offset
+            final float offset = ModernTextRenderer.sShadowOffset;
+            final int count = prepareQuads(matrix, text, x - offset, top - offset,
+                    preferredMode, polygonOffset);
+            if (count >= 0) {
+                drawQuads(matrix, source, count, x - offset, top - offset, offset, true, 0,
+                        r, g, b, a, isShadow(preferredMode), bgColor, packedLight);
+            }
+            return mTotalAdvance;
+        }
+        final int count = prepareQuads(matrix, text, x, top, preferredMode, polygonOffset);
+        if (count < 0) {
+            return mTotalAdvance;
+        }
+        drawQuads(matrix, source, count, x, top, 0, false, 0,
+                r, g, b, a, isShadow(preferredMode), bgColor, packedLight);
+        return mTotalAdvance;
+    }
+
+    /**
+     * Render this text and its drop shadow in Minecraft render system. This is the same as
+     * drawing the shadow with {@link #drawText} at (x + offset, top + offset) with the
+     * darkened color, then drawing the text with the matrix translated by
+     * {@link ModernTextRenderer#SHADOW_OFFSET}, but the glyphs are resolved only once,
+     * and the translation is applied to vertices without copying the matrix.
+     *
+     * @param shadowOffset the shadow offset in pixels, see {@link ModernTextRenderer#sShadowOffset}
+     * @see #drawText(Matrix4f, MultiBufferSource, String, float, float, int, int, int, int, boolean, int, boolean,
+     * int, int)
+     */
+    public float drawTextWithShadow(@Nonnull final Matrix4f matrix,
+                                    @Nonnull final MultiBufferSource source,
+                                    @Nullable String text,
+                                    final float x, final float top,
+                                    int r, int g, int b, int a,
+                                    final float shadowOffset, int preferredMode,
+                                    final boolean polygonOffset,
+                                    final int bgColor, final int packedLight) {
+        final int count = prepareQuads(matrix, text, x, top, preferredMode, polygonOffset);
+        if (count < 0) {
+            return mTotalAdvance;
+        }
+        final boolean seeThrough = isShadow(preferredMode);
+        drawQuads(matrix, source, count, x, top, shadowOffset, true, 0,
+                r >> 2, g >> 2, b >> 2, a, seeThrough, bgColor, packedLight);
+        drawQuads(matrix, source, count, x, top, 0, false, ModernTextRenderer.SHADOW_OFFSET.z,
+                r, g, b, a, seeThrough, bgColor, packedLight);
+        return mTotalAdvance;
+    }
+
+    /**
+     * Render this text with a 4-direction outline, that is four copies in the outline color
+     * offset left, right, up and down, then the text above them. All copies are emitted
+     * before the text into the same buffers, and the text is translated by
+     * {@link ModernTextRenderer#SHADOW_OFFSET} so that it stays in front of the outline after
+     * transparency sorting, so the whole thing is a single draw when glyphs share an atlas.
+     * The outline ignores styled colors, and doesn't draw color emojis and effects.
+     *
+     * @param outlineColor  the outline color in 0xAARRGGBB format, alpha must be set
+     * @param outlineOffset the outline offset in pixels, see {@link ModernTextRenderer#sOutlineOffset}
+     * @see #drawText(Matrix4f, MultiBufferSource, String, float, float, int, int, int, int, boolean, int, boolean,
+     * int, int)
+     */
+    public float drawTextWithOutline(@Nonnull final Matrix4f matrix,
+                                     @Nonnull final MultiBufferSource source,
+                                     @Nullable String text,
+                                     final float x, final float top,
+                                     int r, int g, int b, int a,
+                                     final int outlineColor, final float outlineOffset,
+                                     int preferredMode, final int packedLight) {
+        final int count = prepareQuads(matrix, text, x, top, preferredMode, false);
+        if (count < 0) {
+            return mTotalAdvance;
+        }
+        final boolean seeThrough = isShadow(preferredMode);
+        drawOutlineQuads(matrix, source, count, outlineOffset, 0, outlineColor, seeThrough, packedLight);
+        drawOutlineQuads(matrix, source, count, -outlineOffset, 0, outlineColor, seeThrough, packedLight);
+        drawOutlineQuads(matrix, source, count, 0, outlineOffset, outlineColor, seeThrough, packedLight);
+        drawOutlineQuads(matrix, source, count, 0, -outlineOffset, outlineColor, seeThrough, packedLight);
+        drawQuads(matrix, source, count, x, top, 0, false, ModernTextRenderer.SHADOW_OFFSET.z,
+                r, g, b, a, seeThrough, 0, packedLight);
+        return mTotalAdvance;
+    }
+
+    /**
+     * Draws quads of the last prepareQuads() in a solid color, translated by (dx, dy).
+     */
+    private static void drawOutlineQuads(@Nonnull final Matrix4f matrix,
+                                         @Nonnull final MultiBufferSource source,
+                                         final int count,
+                                         final float dx, final float dy,
+                                         final int color,
+                                         final boolean seeThrough,
+                                         final int packedLight) {
+        final int a = color >>> 24;
+        final int r = color >> 16 & 0xff;
+        final int g = color >> 8 & 0xff;
+        final int b = color & 0xff;
+
+        final float density = sQuadDensity;
+        final float invDensity = 1.0f / density;
+        final BakedGlyph[] quadGlyphs = sQuadGlyphs;
+        final float[] quadBounds = sQuadBounds;
+        final int[] quadInfo = sQuadInfo;
+
+        int prevTexture = -1;
+        VertexConsumer builder = null;
+
+        for (int q = 0; q < count; q++) {
+            final int kind = quadInfo[q * 3 + 1];
+            if ((kind & QUAD_COLOR_EMOJI) != 0) {
+                continue;
+            }
+            final var glyph = quadGlyphs[q];
+            final int texture = quadInfo[q * 3];
+            int j = q * 6;
+            float rx = quadBounds[j] + dx;
+            float ry = quadBounds[j + 1] + dy;
+            final float w = quadBounds[j + 2];
+            final float h = quadBounds[j + 3];
+            final float upSkew = quadBounds[j + 4];
+            final float downSkew = quadBounds[j + 5];
+            if ((kind & QUAD_MODE_MASK) == TextRenderType.MODE_NORMAL &&
+                    !TextLayoutEngine.sCurrentInWorldRendering) {
+                // align to screen pixel center in 2D
+                rx = (int) (rx * density + 0.5f) * invDensity;
+                ry = (int) (ry * density + 0.5f) * invDensity;
+            }
+            if (builder == null || prevTexture != texture) {
+                prevTexture = texture;
+                builder = source.getBuffer(getQuadRenderType(kind, texture, seeThrough));
+            }
+            builder.vertex(matrix, rx + upSkew, ry, 0)
+                    .color(r, g, b, a)
+                    .uv(glyph.u1, glyph.v1)
+                    .uv2(packedLight)
+                    .endVertex();
+            builder.vertex(matrix, rx + downSkew, ry + h, 0)
+                    .color(r, g, b, a)
+                    .uv(glyph.u1, glyph.v2)
+                    .uv2(packedLight)
+                    .endVertex();
+            builder.vertex(matrix, rx + w + downSkew, ry + h, 0)
+                    .color(r, g, b, a)
+                    .uv(glyph.u2, glyph.v2)
+                    .uv2(packedLight)
+                    .endVertex();
+            builder.vertex(matrix, rx + w + upSkew, ry, 0)
+                    .color(r, g, b, a)
+                    .uv(glyph.u2, glyph.v1)
+                    .uv2(packedLight)
+                    .endVertex();
+        }
+    }
+
+    // the render mode is see through
+    private static boolean isShadow(int preferredMode) {
+        return preferredMode == TextRenderType.MODE_SEE_THROUGH;
+    }
+
+    /*
+     * Quads of the last prepareQuads(), render thread only. For each glyph to draw:
+     * the glyph, [x, y, width, height, up skew, down skew] in the text coordinates without
+     * pixel alignment, and [texture, render mode | kind, glyph index].
+     */
+    private static BakedGlyph[] sQuadGlyphs = new BakedGlyph[64];
+    private static float[] sQuadBounds = new float[64 * 6];
+    private static int[] sQuadInfo = new int[64 * 3];
+    private static float sQuadDensity;
+
+    private static final int QUAD_BITMAP = 1 << 16;
+    private static final int QUAD_COLOR_EMOJI = 1 << 17;
+    private static final int QUAD_POLYGON_OFFSET = 1 << 18;
+    private static final int QUAD_MODE_MASK = 0xFFFF;
+
+    /**
+     * Resolves the glyphs and computes their quads, for both shadow and foreground.
+     *
+     * @return the number of quads, or -1 if nothing to draw
+     */
+    private int prepareQuads(@Nonnull final Matrix4f matrix,
+                             @Nullable String text,
+                             final float x, final float top,
+                             int preferredMode,
+                             final boolean polygonOffset) {
         final float density;
         final BakedGlyph[] glyphs;
         if (preferredMode == TextRenderType.MODE_SDF_FILL) {
@@ -337,7 +720,7 @@ public class TextLayout {
         } else if (preferredMode == TextRenderType.MODE_UNIFORM_SCALE) {
             float devS = matrix.m00();
             if (devS == 0) {
-                return mTotalAdvance;
+                return -1;
             }
             density = mCreatedResLevel * devS;
             glyphs = getGlyphsUniformScale(density);
@@ -354,11 +737,26 @@ public class TextLayout {
 
         final float baseline = top + sBaselineOffset;
 
-        int prevTexture = -1;
-        VertexConsumer builder = null;
-
         int standardTexture = -1;
 
+        final int[] fastDigitGlyphs = mFastDigitGlyphs;
+        if (text == null) {
+            text = mFastDigitSource;
+        }
+        int fastDigitIndex = 0;
+
+        if (sQuadGlyphs.length < glyphs.length) {
+            int newLength = Math.max(glyphs.length, sQuadGlyphs.length << 1);
+            sQuadGlyphs = new BakedGlyph[newLength];
+            sQuadBounds = new float[newLength * 6];
+            sQuadInfo = new int[newLength * 3];
+        }
+        final BakedGlyph[] quadGlyphs = sQuadGlyphs;
+        final float[] quadBounds = sQuadBounds;
+        final int[] quadInfo = sQuadInfo;
+        sQuadDensity = density;
+        int count = 0;
+
         boolean seeThrough = preferredMode == TextRenderType.MODE_SEE_THROUGH;
         for (int i = 0, e = glyphs.length; i < e; i++) {
             var glyph = glyphs[i];
@@ -367,6 +765,22 @@ public class TextLayout {
             }
             final int bits = flags[i];
             float rx = 0;
+            if (fastDigitGlyphs != null) {
+                while (fastDigitIndex < fastDigitGlyphs.length &&
+                        fastDigitGlyphs[fastDigitIndex] < i) {
+                    fastDigitIndex++;
+                }
+                if (fastDigitIndex < fastDigitGlyphs.length &&
+                        fastDigitGlyphs[fastDigitIndex] == i) {
+                    var chars = (TextLayoutEngine.FastCharSet) glyph;
+                    int digit = getFastDigit(text, fastDigitIndex);
+                    glyph = chars.glyphs[digit];
+                    // 0 is standard, no additional offset
+                    if (digit != 0) {
+                        rx += chars.offsets[digit];
+                    }
+                }
+            }
             float ry;
             final float w;
             final float h;
@@ -374,31 +788,26 @@ public class TextLayout {
             final int texture;
             boolean fakeItalic = false;
             int ascent = 0;
-            net.minecraft.client.gui.Font.DisplayMode compatDisplayMode = null;
+            int kind = 0;
             if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
                 float scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
                 if ((bits & CharacterStyle.COLOR_EMOJI_REPLACEMENT) != 0) {
-                    if (isShadow) {
-                        continue;
-                    }
                     scaleFactor *= TextLayoutProcessor.sBaseFontSize / TextLayoutProcessor.DEFAULT_BASE_FONT_SIZE;
+                    kind |= QUAD_COLOR_EMOJI;
                 }
-                rx = x + positions[i << 1] + (float) glyph.x * scaleFactor;
+                // bitmap font shadow offset is always 1 pixel
+                kind |= QUAD_BITMAP;
+                rx += x + positions[i << 1] + (float) glyph.x * scaleFactor;
                 ry = baseline + positions[i << 1 | 1] + (float) glyph.y * scaleFactor;
-                if (isShadow) {
-                    // bitmap font shadow offset is always 1 pixel
-                    rx += 1.0f - ModernTextRenderer.sShadowOffset;
-                    ry += 1.0f - ModernTextRenderer.sShadowOffset;
-                }
 
                 w = (float) glyph.width * scaleFactor;
                 h = (float) glyph.height * scaleFactor;
                 effMode = seeThrough ? preferredMode : TextRenderType.MODE_NORMAL;
                 if (polygonOffset) {
-                    compatDisplayMode = net.minecraft.client.gui.Font.DisplayMode.POLYGON_OFFSET;
+                    kind |= QUAD_POLYGON_OFFSET;
                 }
                 if (getFont(i) instanceof BitmapFont bitmapFont) {
-                    texture = bitmapFont.getCurrentTexture();
+                    texture = ((BitmapFont.Glyph) glyph).texture;
                     ascent = bitmapFont.getAscent();
                 } else {
                     texture = TextLayoutEngine.getInstance().getEmojiTexture();
@@ -417,22 +826,18 @@ public class TextLayout {
                     }
                     obfuscated = true;
                 }
-                if (obfuscated && getFont(i) instanceof BitmapFont bitmapFont) {
+                if (obfuscated && getFont(i) instanceof BitmapFont) {
                     effMode = seeThrough ? preferredMode : TextRenderType.MODE_NORMAL;
                     if (polygonOffset) {
-                        compatDisplayMode = net.minecraft.client.gui.Font.DisplayMode.POLYGON_OFFSET;
+                        kind |= QUAD_POLYGON_OFFSET;
                     }
+                    kind |= QUAD_BITMAP;
                     float scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
                     rx += x + positions[i << 1] + (float) glyph.x * scaleFactor;
                     ry = baseline + positions[i << 1 | 1] + (float) glyph.y * scaleFactor;
-                    if (isShadow) {
-                        // bitmap font shadow offset is always 1 pixel
-                        rx += 1.0f - ModernTextRenderer.sShadowOffset;
-                        ry += 1.0f - ModernTextRenderer.sShadowOffset;
-                    }
                     w = (float) glyph.width * scaleFactor;
                     h = (float) glyph.height * scaleFactor;
-                    texture = bitmapFont.getCurrentTexture();
+                    texture = ((BitmapFont.Glyph) glyph).texture;
                 } else {
                     effMode = preferredMode;
                     rx += x + positions[i << 1] + glyph.x * invDensity;
@@ -441,11 +846,95 @@ public class TextLayout {
                     w = glyph.width * invDensity;
                     h = glyph.height * invDensity;
                     if (standardTexture == -1) {
-                        standardTexture = TextLayoutEngine.getInstance().getStandardTexture();
+                        standardTexture = getStandardTexture();
                     }
                     texture = standardTexture;
                 }
             }
+            float upSkew = 0;
+            float downSkew = 0;
+            if (fakeItalic) {
+                upSkew = 0.25f * ascent;
+                downSkew = 0.25f * (ascent - h);
+            }
+            quadGlyphs[count] = glyph;
+            int j = count * 6;
+            quadBounds[j] = rx;
+            quadBounds[j + 1] = ry;
+            quadBounds[j + 2] = w;
+            quadBounds[j + 3] = h;
+            quadBounds[j + 4] = upSkew;
+            quadBounds[j + 5] = downSkew;
+            j = count * 3;
+            quadInfo[j] = texture;
+            quadInfo[j + 1] = effMode | kind;
+            quadInfo[j + 2] = i;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Draws the quads of the last {@link #prepareQuads}, then the effects and background.
+     *
+     * @param x         the left pos of the text, same as prepareQuads()
+     * @param top       the top of the text, same as prepareQuads()
+     * @param offset    the offset to x and top
+     * @param isShadow  whether to draw shadow, the color of explicit styles will be darkened,
+     *                  bitmaps are offset by 1 pixel rather than the given offset,
+     *                  color emojis are not drawn
+     * @param z         the Z translation of vertices
+     * @param r         the default red value (0...255, was divided by 4 if isShadow=true)
+     * @param g         the default green value (0...255, was divided by 4 if isShadow=true)
+     * @param b         the default blue value (0...255, was divided by 4 if isShadow=true)
+     * @param a         the alpha value (0...255)
+     */
+    private void drawQuads(@Nonnull final Matrix4f matrix,
+                           @Nonnull final MultiBufferSource source,
+                           final int count,
+                           final float x, final float top,
+                           final float offset, final boolean isShadow, final float z,
+                           int r, int g, int b, int a,
+                           final boolean seeThrough,
+                           final int bgColor, final int packedLight) {
+        final int startR = r;
+        final int startG = g;
+        final int startB = b;
+
+        final float density = sQuadDensity;
+        final float invDensity = 1.0f / density;
+        final BakedGlyph[] quadGlyphs = sQuadGlyphs;
+        final float[] quadBounds = sQuadBounds;
+        final int[] quadInfo = sQuadInfo;
+        final var flags = mGlyphFlags;
+
+        int prevTexture = -1;
+        VertexConsumer builder = null;
+
+        for (int q = 0; q < count; q++) {
+            final int kind = quadInfo[q * 3 + 1];
+            if (isShadow && (kind & QUAD_COLOR_EMOJI) != 0) {
+                continue;
+            }
+            final var glyph = quadGlyphs[q];
+            final int texture = quadInfo[q * 3];
+            final int effMode = kind & QUAD_MODE_MASK;
+            final int bits = flags[quadInfo[q * 3 + 2]];
+            int j = q * 6;
+            float rx = quadBounds[j];
+            float ry = quadBounds[j + 1];
+            final float w = quadBounds[j + 2];
+            final float h = quadBounds[j + 3];
+            final float upSkew = quadBounds[j + 4];
+            final float downSkew = quadBounds[j + 5];
+            if (isShadow && (kind & QUAD_BITMAP) != 0) {
+                // bitmap font shadow offset is always 1 pixel
+                rx += 1.0f;
+                ry += 1.0f;
+            } else {
+                rx += offset;
+                ry += offset;
+            }
             if (effMode == TextRenderType.MODE_NORMAL &&
                     !TextLayoutEngine.sCurrentInWorldRendering) {
                 // align to screen pixel center in 2D
@@ -469,43 +958,66 @@ public class TextLayout {
             if (builder == null || prevTexture != texture) {
                 // bitmap/color texture and grayscale texture are different, don't check effMode
                 prevTexture = texture;
-                builder = source.getBuffer(compatDisplayMode != null
-                        ? TextRenderType.getOrCreate(prevTexture, compatDisplayMode)
-                        : TextRenderType.getOrCreate(prevTexture, effMode));
-            }
-            float upSkew = 0;
-            float downSkew = 0;
-            if (fakeItalic) {
-                upSkew = 0.25f * ascent;
-                downSkew = 0.25f * (ascent - h);
+                builder = source.getBuffer(getQuadRenderType(kind, texture, seeThrough));
             }
-            builder.vertex(matrix, rx + upSkew, ry, 0)
+            builder.vertex(matrix, rx + upSkew, ry, z)
                     .color(r, g, b, a)
                     .uv(glyph.u1, glyph.v1)
                     .uv2(packedLight)
                     .endVertex();
-            builder.vertex(matrix, rx + downSkew, ry + h, 0)
+            builder.vertex(matrix, rx + downSkew, ry + h, z)
                     .color(r, g, b, a)
                     .uv(glyph.u1, glyph.v2)
                     .uv2(packedLight)
                     .endVertex();
-            builder.vertex(matrix, rx + w + downSkew, ry + h, 0)
+            builder.vertex(matrix, rx + w + downSkew, ry + h, z)
                     .color(r, g, b, a)
                     .uv(glyph.u2, glyph.v2)
                     .uv2(packedLight)
                     .endVertex();
-            builder.vertex(matrix, rx + w + upSkew, ry, 0)
+            builder.vertex(matrix, rx + w + upSkew, ry, z)
                     .color(r, g, b, a)
                     .uv(glyph.u2, glyph.v1)
                     .uv2(packedLight)
                     .endVertex();
         }
 
-        builder = null;
+        drawEffects(matrix, source, x, top, offset, isShadow, z,
+                startR, startG, startB, a, seeThrough, bgColor, packedLight);
+    }
+
+    private static TextRenderType getQuadRenderType(int kind, int texture, boolean seeThrough) {
+        if ((kind & QUAD_COLOR_EMOJI) != 0 && !seeThrough) {
+            // emoji types have fixed buffers, drawn after the sign sheet
+            return TextRenderType.getOrCreateEmoji((kind & QUAD_POLYGON_OFFSET) != 0);
+        }
+        return (kind & QUAD_POLYGON_OFFSET) != 0
+                ? TextRenderType.getOrCreate(texture,
+                net.minecraft.client.gui.Font.DisplayMode.POLYGON_OFFSET)
+                : TextRenderType.getOrCreate(texture, kind & QUAD_MODE_MASK);
+    }
+
+    /**
+     * Draws underline, strikethrough and background, see {@link #drawQuads}.
+     */
+    private void drawEffects(@Nonnull final Matrix4f matrix,
+                             @Nonnull final MultiBufferSource source,
+                             final float x, final float top,
+                             final float offset, final boolean isShadow, final float z,
+                             final int startR, final int startG, final int startB, int a,
+                             final boolean seeThrough,
+                             final int bgColor, final int packedLight) {
+        int r, g, b;
+        VertexConsumer builder = null;
 
-        if (mHasEffect) {
+        final var flags = mGlyphFlags;
+        final var positions = mPositions;
+        final float left = x + offset;
+        final float baseline = top + offset + sBaselineOffset;
+        final float effectDepth = TextRenderEffect.EFFECT_DEPTH + z;
+        if (mHasEffect && sDrawEffects) {
             builder = source.getBuffer(EffectRenderType.getRenderType(seeThrough));
-            for (int i = 0, e = glyphs.length; i < e; i++) {
+            for (int i = 0, e = flags.length; i < e; i++) {
                 final int flag = flags[i];
                 if ((flag & CharacterStyle.EFFECT_MASK) == 0) {
                     continue;
@@ -524,14 +1036,14 @@ public class TextLayout {
                         b >>= 2;
                     }
                 }
-                final float rx1 = x + positions[i << 1];
-                final float rx2 = x + ((i + 1 == e) ? mTotalAdvance : positions[(i + 1) << 1]);
+                final float rx1 = left + positions[i << 1];
+                final float rx2 = left + ((i + 1 == e) ? mTotalAdvance : positions[(i + 1) << 1]);
                 if ((flag & CharacterStyle.STRIKETHROUGH_MASK) != 0) {
-                    TextRenderEffect.drawStrikethrough(matrix, builder, rx1, rx2, baseline,
+                    TextRenderEffect.drawStrikethrough(matrix, builder, rx1, rx2, baseline, effectDepth,
                             r, g, b, a, packedLight);
                 }
                 if ((flag & CharacterStyle.UNDERLINE_MASK) != 0) {
-                    TextRenderEffect.drawUnderline(matrix, builder, rx1, rx2, baseline,
+                    TextRenderEffect.drawUnderline(matrix, builder, rx1, rx2, baseline, effectDepth,
                             r, g, b, a, packedLight);
                 }
             }
@@ -545,26 +1057,230 @@ public class TextLayout {
             if (builder == null) {
                 builder = source.getBuffer(EffectRenderType.getRenderType(seeThrough));
             }
-            builder.vertex(matrix, x - 1, top + 9, TextRenderEffect.EFFECT_DEPTH)
+            final float bgTop = top + offset;
+            builder.vertex(matrix, left - 1, bgTop + 9, effectDepth)
                     .color(r, g, b, a).uv(0, 1).uv2(packedLight).endVertex();
-            builder.vertex(matrix, x + mTotalAdvance + 1, top + 9, TextRenderEffect.EFFECT_DEPTH)
+            builder.vertex(matrix, left + mTotalAdvance + 1, bgTop + 9, effectDepth)
                     .color(r, g, b, a).uv(1, 1).uv2(packedLight).endVertex();
-            builder.vertex(matrix, x + mTotalAdvance + 1, top - 1, TextRenderEffect.EFFECT_DEPTH)
+            builder.vertex(matrix, left + mTotalAdvance + 1, bgTop - 1, effectDepth)
                     .color(r, g, b, a).uv(1, 0).uv2(packedLight).endVertex();
-            builder.vertex(matrix, x - 1, top - 1, TextRenderEffect.EFFECT_DEPTH)
+            builder.vertex(matrix, left - 1, bgTop - 1, effectDepth)
                     .color(r, g, b, a).uv(0, 0).uv2(packedLight).endVertex();
         }
+    }
 
-        return mTotalAdvance;
+    /**
+     * Returns the digit value (0 to 9) of the fast digit at the given index.
+     *
+     * @param text  the raw string with formatting codes, or null
+     * @param index the index into {@link #mFastDigitIndices}
+     * @return the digit value, or 0 if the string does not match
+     */
+    private int getFastDigit(@Nullable String text, int index) {
+        assert mFastDigitIndices != null;
+        int stringIndex = mFastDigitIndices[index];
+        if (text != null && stringIndex < text.length()) {
+            int digit = text.charAt(stringIndex) - '0';
+            if (digit >= 0 && digit <= 9) {
+                return digit;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Combination of drawText() in {@link TextRenderType#MODE_SDF_FILL} and {@link #drawTextOutline},
+     * used by drawText8xOutline(). Each glyph is emitted once, outset for the stroke, with both
+     * fill and stroke colors, and the shader computes both. Bitmaps have no stroke, they are
+     * drawn as in drawText(). No shadow, no background.
+     *
+     * @param matrix      the position transformation
+     * @param source      the vertex buffer source
+     * @param text        the raw string to replace fast digits, must have the same layout key,
+     *                    null to use the string that this layout is created from
+     * @param x           the left pos of the text line to render
+     * @param top         the top of the text line to render
+     * @param r           the default fill red value (0...255)
+     * @param g           the default fill green value (0...255)
+     * @param b           the default fill blue value (0...255)
+     * @param a           the fill alpha value (0...255)
+     * @param strokeColor the stroke color in 0xAARRGGBB format, alpha must be set
+     * @param packedLight see {@link net.minecraft.client.renderer.LightTexture}
+     */
+    public void drawTextFillStroke(@Nonnull final Matrix4f matrix,
+                                   @Nonnull final MultiBufferSource source,
+                                   @Nullable String text,
+                                   final float x, final float top,
+                                   final int r, final int g, final int b, final int a,
+                                   final int strokeColor, final int packedLight) {
+        final int count = prepareQuads(matrix, text, x, top, TextRenderType.MODE_SDF_FILL, false);
+        if (count < 0) {
+            return;
+        }
+        // packed into two shorts
+        final int strokeRG = strokeColor >> 8 & 0xffff;
+        final int strokeBA = (strokeColor & 0xff) << 8 | strokeColor >>> 24;
+
+        // outset glyph bounds
+        final float sBloat = 1.0f / sQuadDensity;
+        final BakedGlyph[] quadGlyphs = sQuadGlyphs;
+        final float[] quadBounds = sQuadBounds;
+        final int[] quadInfo = sQuadInfo;
+        final var flags = mGlyphFlags;
+
+        int prevTexture = -1;
+        boolean prevStroke = false;
+        VertexConsumer builder = null;
+
+        for (int q = 0; q < count; q++) {
+            final int kind = quadInfo[q * 3 + 1];
+            final var glyph = quadGlyphs[q];
+            final int texture = quadInfo[q * 3];
+            final int bits = flags[quadInfo[q * 3 + 2]];
+            int j = q * 6;
+            final float rx = quadBounds[j];
+            final float ry = quadBounds[j + 1];
+            final float w = quadBounds[j + 2];
+            final float h = quadBounds[j + 3];
+            final int cr, cg, cb;
+            if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
+                cr = r;
+                cg = g;
+                cb = b;
+            } else {
+                cr = bits >> 16 & 0xff;
+                cg = bits >> 8 & 0xff;
+                cb = bits & 0xff;
+            }
+            final boolean stroke = (kind & QUAD_BITMAP) == 0;
+            if (builder == null || prevTexture != texture || prevStroke != stroke) {
+                prevTexture = texture;
+                prevStroke = stroke;
+                builder = source.getBuffer(stroke
+                        ? TextRenderType.getOrCreateSDFFillStroke(texture)
+                        : getQuadRenderType(kind, texture, false));
+            }
+            if (stroke) {
+                float uBloat = (glyph.u2 - glyph.u1) / glyph.width;
+                float vBloat = (glyph.v2 - glyph.v1) / glyph.height;
+                builder.vertex(matrix, rx - sBloat, ry - sBloat, 0)
+                        .color(cr, cg, cb, a)
+                        .uv(glyph.u1 - uBloat, glyph.v1 - vBloat)
+                        .overlayCoords(strokeRG, strokeBA)
+                        .uv2(packedLight)
+                        .endVertex();
+                builder.vertex(matrix, rx - sBloat, ry + h + sBloat, 0)
+                        .color(cr, cg, cb, a)
+                        .uv(glyph.u1 - uBloat, glyph.v2 + vBloat)
+                        .overlayCoords(strokeRG, strokeBA)
+                        .uv2(packedLight)
+                        .endVertex();
+                builder.vertex(matrix, rx + w + sBloat, ry + h + sBloat, 0)
+                        .color(cr, cg, cb, a)
+                        .uv(glyph.u2 + uBloat, glyph.v2 + vBloat)
+                        .overlayCoords(strokeRG, strokeBA)
+                        .uv2(packedLight)
+                        .endVertex();
+                builder.vertex(matrix, rx + w + sBloat, ry - sBloat, 0)
+                        .color(cr, cg, cb, a)
+                        .uv(glyph.u2 + uBloat, glyph.v1 - vBloat)
+                        .overlayCoords(strokeRG, strokeBA)
+                        .uv2(packedLight)
+                        .endVertex();
+            } else {
+                final float upSkew = quadBounds[j + 4];
+                final float downSkew = quadBounds[j + 5];
+                builder.vertex(matrix, rx + upSkew, ry, 0)
+                        .color(cr, cg, cb, a)
+                        .uv(glyph.u1, glyph.v1)
+                        .uv2(packedLight)
+                        .endVertex();
+                builder.vertex(matrix, rx + downSkew, ry + h, 0)
+                        .color(cr, cg, cb, a)
+                        .uv(glyph.u1, glyph.v2)
+                        .uv2(packedLight)
+                        .endVertex();
+                builder.vertex(matrix, rx + w + downSkew, ry + h, 0)
+                        .color(cr, cg, cb, a)
+                        .uv(glyph.u2, glyph.v2)
+                        .uv2(packedLight)
+                        .endVertex();
+                builder.vertex(matrix, rx + w + upSkew, ry, 0)
+                        .color(cr, cg, cb, a)
+                        .uv(glyph.u2, glyph.v1)
+                        .uv2(packedLight)
+                        .endVertex();
+            }
+        }
+
+        drawEffects(matrix, source, x, top, 0, false, 0,
+                r, g, b, a, false, 0, packedLight);
+    }
+
+    /**
+     * Draw a rectangle that covers the glyphs of this text, as the silhouette of text that
+     * is too small to read. Only background and this rectangle are drawn.
+     *
+     * @param matrix      the position transformation
+     * @param source      the vertex buffer source
+     * @param x           the left pos of the text line to render
+     * @param top         the top of the text line to render
+     * @param r           the red value (0...255)
+     * @param g           the green value (0...255)
+     * @param b           the blue value (0...255)
+     * @param a           the alpha value (0...255)
+     * @param seeThrough  whether to use see through render type
+     * @param bgColor     the background color of the text in 0xAARRGGBB format
+     * @param packedLight see {@link net.minecraft.client.renderer.LightTexture}
+     */
+    public void drawTextSilhouette(@Nonnull Matrix4f matrix,
+                                   @Nonnull MultiBufferSource source,
+                                   final float x, final float top,
+                                   int r, int g, int b, int a,
+                                   final boolean seeThrough,
+                                   final int bgColor, final int packedLight) {
+        if (mTotalAdvance <= 0) {
+            return;
+        }
+        final VertexConsumer builder = source.getBuffer(EffectRenderType.getRenderType(seeThrough));
+        final float depth = TextRenderEffect.EFFECT_DEPTH;
+        if ((bgColor & 0xFF000000) != 0) {
+            int ba = bgColor >>> 24;
+            int br = bgColor >> 16 & 0xff;
+            int bg = bgColor >> 8 & 0xff;
+            int bb = bgColor & 0xff;
+            builder.vertex(matrix, x - 1, top + 9, depth)
+                    .color(br, bg, bb, ba).uv(0, 1).uv2(packedLight).endVertex();
+            builder.vertex(matrix, x + mTotalAdvance + 1, top + 9, depth)
+                    .color(br, bg, bb, ba).uv(1, 1).uv2(packedLight).endVertex();
+            builder.vertex(matrix, x + mTotalAdvance + 1, top - 1, depth)
+                    .color(br, bg, bb, ba).uv(1, 0).uv2(packedLight).endVertex();
+            builder.vertex(matrix, x - 1, top - 1, depth)
+                    .color(br, bg, bb, ba).uv(0, 0).uv2(packedLight).endVertex();
+        }
+        // glyphs cover about half of the line box, from x-height to baseline
+        final float bottom = top + sBaselineOffset;
+        final float upper = bottom - 5;
+        a >>= 1;
+        builder.vertex(matrix, x, bottom, 0)
+                .color(r, g, b, a).uv(0, 1).uv2(packedLight).endVertex();
+        builder.vertex(matrix, x + mTotalAdvance, bottom, 0)
+                .color(r, g, b, a).uv(1, 1).uv2(packedLight).endVertex();
+        builder.vertex(matrix, x + mTotalAdvance, upper, 0)
+                .color(r, g, b, a).uv(1, 0).uv2(packedLight).endVertex();
+        builder.vertex(matrix, x, upper, 0)
+                .color(r, g, b, a).uv(0, 0).uv2(packedLight).endVertex();
     }
 
     /**
      * Special case of drawText() when drawing the glowing outline of drawText8xOutline().
-     * No fast digit replacement, no shadow, no background, no underline, no strikethrough,
-     * no bitmap replacement, force to use input color, can have obfuscated rendering (but should not).
+     * No shadow, no background, no underline, no strikethrough, no bitmap replacement,
+     * force to use input color, can have obfuscated rendering (but should not).
      *
      * @param matrix      the position transformation
      * @param source      the vertex buffer source
+     * @param text        the raw string to replace fast digits, must have the same layout key,
+     *                    null to use the string that this layout is created from
      * @param x           the left pos of the text line to render
      * @param top         the top of the text line to render
      * @param r           the default outline red value (0...255)
@@ -576,6 +1292,7 @@ public class TextLayout {
     @SuppressWarnings("UnnecessaryLocalVariable")
     public void drawTextOutline(@Nonnull Matrix4f matrix,
                                 @Nonnull MultiBufferSource source,
+                                @Nullable String text,
                                 final float x, final float top,
                                 int r, int g, int b, int a,
                                 int packedLight) {
@@ -593,6 +1310,12 @@ public class TextLayout {
 
         int standardTexture = -1;
 
+        final int[] fastDigitGlyphs = mFastDigitGlyphs;
+        if (text == null) {
+            text = mFastDigitSource;
+        }
+        int fastDigitIndex = 0;
+
         // outset glyph bounds
         final float sBloat = 1.0f / resLevel;
         for (int i = 0, e = glyphs.length; i < e; i++) {
@@ -602,6 +1325,22 @@ public class TextLayout {
             }
             final int bits = flags[i];
             float rx = 0;
+            if (fastDigitGlyphs != null) {
+                while (fastDigitIndex < fastDigitGlyphs.length &&
+                        fastDigitGlyphs[fastDigitIndex] < i) {
+                    fastDigitIndex++;
+                }
+                if (fastDigitIndex < fastDigitGlyphs.length &&
+                        fastDigitGlyphs[fastDigitIndex] == i) {
+                    var chars = (TextLayoutEngine.FastCharSet) glyph;
+                    int digit = getFastDigit(text, fastDigitIndex);
+                    glyph = chars.glyphs[digit];
+                    // 0 is standard, no additional offset
+                    if (digit != 0) {
+                        rx += chars.offsets[digit];
+                    }
+                }
+            }
             final float ry;
             final float w;
             final float h;
@@ -624,7 +1363,7 @@ public class TextLayout {
                 w = glyph.width / resLevel;
                 h = glyph.height / resLevel;
                 if (standardTexture == -1) {
-                    standardTexture = TextLayoutEngine.getInstance().getStandardTexture();
+                    standardTexture = getStandardTexture();
                 }
                 texture = standardTexture;
             }
@@ -707,6 +1446,103 @@ public class TextLayout {
         return mAdvances;
     }
 
+    @Nonnull
+    private float[] getPrefixAdvances() {
+        float[] prefixAdvances = mPrefixAdvances;
+        if (prefixAdvances == null) {
+            final float[] advances = mAdvances;
+            if (advances == null) {
+                throw new IllegalStateException("Advances are not computed");
+            }
+            prefixAdvances = new float[advances.length + 1];
+            float x = 0;
+            for (int i = 0; i < advances.length; i++) {
+                prefixAdvances[i] = x;
+                x += advances[i];
+            }
+            prefixAdvances[advances.length] = x;
+            mPrefixAdvances = prefixAdvances;
+        }
+        return prefixAdvances;
+    }
+
+    /**
+     * Returns the sum of advances from the start to the given strip index (exclusive),
+     * in O(1) time. This is the offset x of the given char.
+     * <p>
+     * Available only when {@link TextLayoutEngine#COMPUTE_ADVANCES}.
+     *
+     * @param index the strip index (without formatting codes), in [0, {@link #getCharCount()}]
+     * @return the offset x in GUI scaled pixels
+     */
+    public float getAdvance(int index) {
+        return getPrefixAdvances()[index];
+    }
+
+    /**
+     * Returns the sum of advances of the given range of strip indices, in O(1) time.
+     * <p>
+     * Available only when {@link TextLayoutEngine#COMPUTE_ADVANCES}.
+     *
+     * @param start the start strip index (without formatting codes), inclusive
+     * @param end   the end strip index (without formatting codes), exclusive
+     * @return the advance in GUI scaled pixels
+     */
+    public float getAdvance(int start, int end) {
+        final float[] prefixAdvances = getPrefixAdvances();
+        return prefixAdvances[end] - prefixAdvances[start];
+    }
+
+    /**
+     * Returns the maximum strip index that the sum of advances from the start to the index
+     * does not exceed the given advance, in O(log n) time. Chars with zero advance (not
+     * grapheme cluster bounds) are included.
+     * <p>
+     * Available only when {@link TextLayoutEngine#COMPUTE_ADVANCES}.
+     *
+     * @param advance the offset x in GUI scaled pixels
+     * @return the strip index (without formatting codes), in [0, {@link #getCharCount()}]
+     */
+    public int getOffsetForAdvance(float advance) {
+        final float[] prefixAdvances = getPrefixAdvances();
+        int low = 0;
+        int high = prefixAdvances.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (prefixAdvances[mid] <= advance) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the minimum strip index that the sum of advances from the index to the end
+     * does not exceed the given advance, in O(log n) time.
+     * <p>
+     * Available only when {@link TextLayoutEngine#COMPUTE_ADVANCES}.
+     *
+     * @param advance the advance from the end in GUI scaled pixels
+     * @return the strip index (without formatting codes), in [0, {@link #getCharCount()}]
+     */
+    public int getOffsetForAdvanceFromEnd(float advance) {
+        final float[] prefixAdvances = getPrefixAdvances();
+        final float total = prefixAdvances[prefixAdvances.length - 1];
+        int low = 0;
+        int high = prefixAdvances.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (total - prefixAdvances[mid] <= advance) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
     /**
      * Returns which font should be used for the i-th glyph.
      *
@@ -749,6 +1585,17 @@ public class TextLayout {
         return mFonts;
     }
 
+    /**
+     * Returns the font names that had no font collection when this layout was created,
+     * the fallback typeface was used instead.
+     *
+     * @return the font names, or null if none
+     */
+    @Nullable
+    public ResourceLocation[] getFallbackFontNames() {
+        return mFallbackFontNames;
+    }
+
     /*
      * Glyphs to relative char indices of the strip string (without formatting codes). However,
      * for vanilla layout {@link VanillaLayoutKey} and {@link TextLayoutEngine#lookupVanillaLayout(String)},
@@ -808,10 +1655,25 @@ public class TextLayout {
         if (mAdvances != null) {
             m += 16 + MathUtil.align8(mAdvances.length << 2);
         }
+        final float[] prefixAdvances = mPrefixAdvances;
+        if (prefixAdvances != null) {
+            m += 16 + MathUtil.align8(prefixAdvances.length << 2);
+        }
+        final ModernStringSplitter.LineBreaks lineBreaks = mLineBreaks;
+        if (lineBreaks != null) {
+            m += 16 + MathUtil.align8(lineBreaks.breakPoints().length << 2);
+            if (lineBreaks.lineEnds() != null) {
+                m += (16 + MathUtil.align8(lineBreaks.lineEnds().length << 2)) * 2;
+            }
+        }
         m += 16 + MathUtil.align8(mGlyphFlags.length << 2); // flags
         if (mLineBoundaries != null) {
             m += 16 + MathUtil.align8(mLineBoundaries.length << 2);
         }
+        if (mFastDigitGlyphs != null) {
+            m += 16 + MathUtil.align8(mFastDigitGlyphs.length << 2);
+            m += 16 + MathUtil.align8(mFastDigitIndices.length << 2);
+        }
         if (mBakedGlyphs != null) {
             m += 16 + MathUtil.align8(mBakedGlyphs.length << 2);
         }
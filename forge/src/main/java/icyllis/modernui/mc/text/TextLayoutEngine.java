@@ -37,6 +37,9 @@ import icyllis.modernui.mc.text.mixin.MixinClientLanguage;
 import icyllis.modernui.text.*;
 import icyllis.modernui.util.Pools;
 import icyllis.modernui.view.View;
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.font.FontManager;
@@ -53,10 +56,13 @@ import org.apache.logging.log4j.MarkerManager;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.awt.font.GlyphVector;
+import java.io.ByteArrayInputStream;
 import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.function.*;
 import java.util.stream.Collectors;
@@ -254,11 +260,42 @@ public class TextLayoutEngine extends FontResourceManager
     // it's necessary to cache the lambda
     private final Function<FontStrikeDesc, FastCharSet> mCacheFastChars = this::cacheFastChars;
 
+    private record AsciiTableDesc(FontCollection collection, int fontStyle, int fontSize) {
+    }
+
+    /**
+     * For fast ASCII layout. Map from 'font collection with style and size' to 'layout results of
+     * each printable ASCII character'. This may be accessed by background layout threads.
+     *
+     * @see TextLayoutProcessor
+     */
+    private final Map<AsciiTableDesc, AsciiTable> mAsciiTableMap = new ConcurrentHashMap<>();
+    // it's necessary to cache the lambda
+    private final Function<AsciiTableDesc, AsciiTable> mCacheAsciiTable =
+            desc -> AsciiTable.create(desc.collection, desc.fontStyle, desc.fontSize);
+
     /**
      * All the fonts to use. Maps typeface name to FontCollection.
      */
     private final HashMap<ResourceLocation, FontCollection> mFontCollections = new HashMap<>();
 
+    /**
+     * Font families from resource packs, keyed by the fingerprint of the provider (SHA-256
+     * of the file content and the definition). Retained to share with the next reload.
+     */
+    private volatile Map<String, FontFamily> mFontFiles = Collections.emptyMap();
+    /**
+     * Font collections loaded by last reload, unchanged collections are shared with the
+     * next reload.
+     */
+    private volatile Map<ResourceLocation, FontCollection> mLoadedFontCollections = Collections.emptyMap();
+    /**
+     * All font collections before the resource reload, used to keep the layouts that
+     * did not use any changed font, null if no resource reload is pending.
+     */
+    @Nullable
+    private Map<ResourceLocation, FontCollection> mFontCollectionsBeforeReload;
+
     private FontCollection mDefaultFontCollection;
 
     public static final int MIN_PIXEL_DENSITY_FOR_SDF = 4;
@@ -282,6 +319,10 @@ public class TextLayoutEngine extends FontResourceManager
      * Text direction.
      */
     private TextDirectionHeuristic mTextDirectionHeuristic = TextDirectionHeuristics.FIRSTSTRONG_LTR;
+    /**
+     * The locale of the last reload, line breaking and bidi of layouts depend on it.
+     */
+    private Locale mLocale;
 
     // vanilla's font manager, used only for compatibility
     private FontManager mVanillaFontManager;
@@ -317,6 +358,7 @@ public class TextLayoutEngine extends FontResourceManager
                 TextRenderType.clear();
             } else {
                 // called by compact(), need to lookupGlyph() and cacheGlyph() again
+                resetEmojiStreaming();
                 reload();
             }
         });
@@ -371,6 +413,7 @@ public class TextLayoutEngine extends FontResourceManager
         mFormattedCache = new HashMap<>();
         // Metrics change with resolution level
         mFastCharMap.clear();
+        mAsciiTableMap.clear();
         // Just clear TextRenderType instances, font textures are remained
         TextRenderType.clear();
         if (count > 0) {
@@ -411,6 +454,7 @@ public class TextLayoutEngine extends FontResourceManager
         }
 
         Locale locale = ModernUI.getSelectedLocale();
+        mLocale = locale;
         boolean layoutRtl = TextUtils.getLayoutDirectionFromLocale(locale) == View.LAYOUT_DIRECTION_RTL;
         mTextDirectionHeuristic = switch (sTextDirection) {
             case View.TEXT_DIRECTION_ANY_RTL -> TextDirectionHeuristics.ANYRTL_LTR;
@@ -478,8 +522,119 @@ public class TextLayoutEngine extends FontResourceManager
      */
     @RenderThread
     public void reloadAll() {
+        final var oldCollections = mFontCollectionsBeforeReload;
+        mFontCollectionsBeforeReload = null;
+        if (oldCollections == null) {
+            super.reloadAll();
+            reload();
+            return;
+        }
+        // keep the old caches, reload() clears them
+        final int oldResLevel = mResLevel;
+        final Locale oldLocale = mLocale;
+        final TextDirectionHeuristic oldTextDirectionHeuristic = mTextDirectionHeuristic;
+        final var vanillaCache = mVanillaCache;
+        final var componentCache = mComponentCache;
+        final var formattedCache = mFormattedCache;
+        mVanillaCache = new HashMap<>();
+        mComponentCache = new HashMap<>();
+        mFormattedCache = new HashMap<>();
         super.reloadAll();
         reload();
+
+        if (mResLevel != oldResLevel ||
+                !Objects.equals(mLocale, oldLocale) ||
+                mTextDirectionHeuristic != oldTextDirectionHeuristic) {
+            // e.g. language changed, bidi, line breaks and glyph sizes may be different
+            LOGGER.debug(MARKER, "Retained no text layout entries, layout parameters changed");
+            return;
+        }
+
+        // fonts of the collections that changed, layouts using them may be itemized differently
+        final var changedFonts = Collections.newSetFromMap(new IdentityHashMap<Font, Boolean>());
+        for (var e : oldCollections.entrySet()) {
+            FontCollection newCollection = mFontCollections.get(e.getKey());
+            if (newCollection == null ||
+                    !isSameFamilies(e.getValue().getFamilies(), newCollection.getFamilies())) {
+                collectFonts(e.getValue().getFamilies(), changedFonts);
+            }
+        }
+        // new font names, layouts that requested them used the fallback typeface
+        final var addedFontNames = new HashSet<ResourceLocation>();
+        for (var fontName : mFontCollections.keySet()) {
+            if (!oldCollections.containsKey(fontName)) {
+                addedFontNames.add(fontName);
+            }
+        }
+        final var aliveFonts = Collections.newSetFromMap(new IdentityHashMap<Font, Boolean>());
+        for (var collection : mFontCollections.values()) {
+            collectFonts(collection.getFamilies(), aliveFonts);
+        }
+        if (mEmojiFont != null) {
+            aliveFonts.add(mEmojiFont);
+        }
+        aliveFonts.removeAll(changedFonts);
+
+        final Predicate<TextLayout> retained = layout -> {
+            for (Font font : layout.getFontVector()) {
+                if (!aliveFonts.contains(font)) {
+                    return false;
+                }
+            }
+            final ResourceLocation[] fallbackFontNames = layout.getFallbackFontNames();
+            if (fallbackFontNames != null) {
+                for (ResourceLocation fontName : fallbackFontNames) {
+                    if (addedFontNames.contains(fontName)) {
+                        return false;
+                    }
+                }
+            }
+            // glyph atlases were cleared
+            layout.clearBakedGlyphs();
+            return true;
+        };
+        int count = 0;
+        for (var e : vanillaCache.entrySet()) {
+            if (retained.test(e.getValue())) {
+                mVanillaCache.put(e.getKey(), e.getValue());
+                count++;
+            }
+        }
+        for (var e : componentCache.entrySet()) {
+            if (retained.test(e.getValue())) {
+                mComponentCache.put(e.getKey(), e.getValue());
+                count++;
+            }
+        }
+        for (var e : formattedCache.entrySet()) {
+            if (retained.test(e.getValue())) {
+                mFormattedCache.put(e.getKey(), e.getValue());
+                count++;
+            }
+        }
+        LOGGER.debug(MARKER, "Retained {} text layout entries, changed fonts: {}, added font names: {}",
+                count, changedFonts.size(), addedFontNames.size());
+    }
+
+    private static boolean isSameFamilies(@Nonnull List<FontFamily> a, @Nonnull List<FontFamily> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void collectFonts(@Nonnull List<FontFamily> families, @Nonnull Set<Font> dst) {
+        for (var family : families) {
+            dst.add(family.getClosestMatch(FontPaint.NORMAL));
+            dst.add(family.getClosestMatch(FontPaint.BOLD));
+            dst.add(family.getClosestMatch(FontPaint.ITALIC));
+            dst.add(family.getClosestMatch(FontPaint.BOLD | FontPaint.ITALIC));
+        }
     }
 
     @Override
@@ -498,6 +653,7 @@ public class TextLayoutEngine extends FontResourceManager
         pw.print("CacheCount=" + getCacheCount());
         long memorySize = getCacheMemorySize();
         pw.println(", CacheSize=" + TextUtils.binaryCompact(memorySize) + " (" + memorySize + " bytes)");
+        TextRenderType.dumpInfo(pw);
     }
 
     //// START Resource Reloading
@@ -560,6 +716,15 @@ public class TextLayoutEngine extends FontResourceManager
 
     private static final class LoadResults extends FontResourceManager.LoadResults {
         volatile Map<ResourceLocation, FontCollection> mFontCollections;
+        /**
+         * Font families loaded by last reload, and this reload, keyed by fingerprint.
+         */
+        Map<String, FontFamily> mPrevFontFiles;
+        final Map<String, FontFamily> mFontFiles = new ConcurrentHashMap<>();
+        /**
+         * Font collections loaded by last reload.
+         */
+        Map<ResourceLocation, FontCollection> mPrevFontCollections;
     }
 
     // ASYNC
@@ -567,25 +732,39 @@ public class TextLayoutEngine extends FontResourceManager
     private CompletableFuture<LoadResults> prepareResources(@Nonnull ResourceManager resourceManager,
                                                             @Nonnull Executor preparationExecutor) {
         final var results = new LoadResults();
-        final var loadFonts = CompletableFuture.runAsync(() ->
-                        loadFonts(resourceManager, results),
+        results.mPrevFontFiles = mFontFiles;
+        results.mPrevFontCollections = mLoadedFontCollections;
+        final var loadFonts = CompletableFuture.supplyAsync(() ->
+                        loadFonts(resourceManager, preparationExecutor, results),
+                preparationExecutor)
+                .thenCompose(bundles -> CompletableFuture.allOf(bundles.stream()
+                                .flatMap(bundle -> bundle.families.stream())
+                                .filter(CompletableFuture.class::isInstance)
+                                .toArray(CompletableFuture[]::new))
+                        .thenAcceptAsync(__ -> resolveFonts(bundles, results),
+                                preparationExecutor));
+        final var loadEmojis = loadEmojiResources(resourceManager, results,
                 preparationExecutor);
-        final var loadEmojis = CompletableFuture.runAsync(() ->
-                        loadEmojis(resourceManager, results),
-                preparationExecutor);
-        final var loadShortcodes = CompletableFuture.runAsync(() ->
-                        loadShortcodes(resourceManager, results),
-                preparationExecutor);
-        return CompletableFuture.allOf(loadFonts, loadEmojis, loadShortcodes)
+        return CompletableFuture.allOf(loadFonts, loadEmojis)
                 .thenApply(__ -> results);
     }
 
     // SYNC
     private void applyResources(@Nonnull LoadResults results) {
-        close();
+        // close bitmaps that are not shared with the new fonts
+        final var sharedFonts = Collections.newSetFromMap(new IdentityHashMap<Font, Boolean>());
+        for (var fontCollection : results.mFontCollections.values()) {
+            collectFonts(fontCollection.getFamilies(), sharedFonts);
+        }
+        closeBitmapFonts(sharedFonts);
+        TextRenderType.clear();
+        mFontCollectionsBeforeReload = new HashMap<>(mFontCollections);
         // reload fonts
         mFontCollections.clear();
         mFontCollections.putAll(results.mFontCollections);
+        mAsciiTableMap.clear();
+        mFontFiles = results.mFontFiles;
+        mLoadedFontCollections = results.mFontCollections;
         mDefaultFontCollection = mFontCollections.get(Minecraft.DEFAULT_FONT);
         // vanilla compatibility
         if (mVanillaFontManager != null) {
@@ -614,22 +793,28 @@ public class TextLayoutEngine extends FontResourceManager
 
     @Override
     public void close() {
+        closeBitmapFonts(Collections.emptySet());
+        TextRenderType.clear();
+    }
+
+    private void closeBitmapFonts(@Nonnull Set<Font> excluded) {
         // close bitmaps if never baked
         for (var fontCollection : mFontCollections.values()) {
             for (var family : fontCollection.getFamilies()) {
-                if (family.getClosestMatch(FontPaint.NORMAL) instanceof BitmapFont bitmapFont) {
+                if (family.getClosestMatch(FontPaint.NORMAL) instanceof BitmapFont bitmapFont &&
+                        !excluded.contains(bitmapFont)) {
                     bitmapFont.close();
                 }
             }
         }
         if (mDefaultFontCollection != null) {
             for (var family : mDefaultFontCollection.getFamilies()) {
-                if (family.getClosestMatch(FontPaint.NORMAL) instanceof BitmapFont bitmapFont) {
+                if (family.getClosestMatch(FontPaint.NORMAL) instanceof BitmapFont bitmapFont &&
+                        !excluded.contains(bitmapFont)) {
                     bitmapFont.close();
                 }
             }
         }
-        TextRenderType.clear();
     }
 
     private static boolean isUnicodeFont(@Nonnull ResourceLocation name) {
@@ -648,7 +833,8 @@ public class TextLayoutEngine extends FontResourceManager
         /**
          * We load font families other than {@link #isUnicodeFont(ResourceLocation)}.
          * <p>
-         * Either FontFamily or ResourceLocation (reference).
+         * Either FontFamily, ResourceLocation (reference) or CompletableFuture of nullable
+         * FontFamily (being loaded).
          */
         Set<Object> families = new LinkedHashSet<>();
         /**
@@ -670,8 +856,11 @@ public class TextLayoutEngine extends FontResourceManager
         }
     }
 
-    // ASYNC
-    private static void loadFonts(@Nonnull ResourceManager resources, @Nonnull LoadResults results) {
+    // ASYNC, font files are loaded in parallel, then resolved by resolveFonts()
+    @Nonnull
+    private static List<RawFontBundle> loadFonts(@Nonnull ResourceManager resources,
+                                                 @Nonnull Executor executor,
+                                                 @Nonnull LoadResults results) {
         final var gson = new GsonBuilder()
                 .setPrettyPrinting()
                 .disableHtmlEscaping()
@@ -702,7 +891,7 @@ public class TextLayoutEngine extends FontResourceManager
                                 ),
                                 JsonParseException::new
                         );
-                        loadSingleFont(resources, name, bundle,
+                        loadSingleFont(resources, executor, results, name, bundle,
                                 resource.sourcePackId(), i, metadata, definition);
                     }
                 } catch (Exception e) {
@@ -710,7 +899,27 @@ public class TextLayoutEngine extends FontResourceManager
                             name, resource.sourcePackId(), e);
                 }
             }
-            LOGGER.debug(MARKER, "Loaded raw font resource: '{}', font set: [{}]", location,
+        }
+        return bundles;
+    }
+
+    // ASYNC, all font files have been loaded
+    private static void resolveFonts(@Nonnull List<RawFontBundle> bundles, @Nonnull LoadResults results) {
+        for (var bundle : bundles) {
+            var families = new LinkedHashSet<>();
+            for (var object : bundle.families) {
+                if (object instanceof CompletableFuture<?> future) {
+                    // null if failed
+                    var family = future.getNow(null);
+                    if (family != null) {
+                        families.add(family);
+                    }
+                } else {
+                    families.add(object);
+                }
+            }
+            bundle.families = families;
+            LOGGER.debug(MARKER, "Loaded raw font resource: '{}', font set: [{}]", bundle.name,
                     bundle.families.stream().map(object -> {
                                 if (object instanceof FontFamily family) {
                                     return family.getFamilyName();
@@ -743,7 +952,13 @@ public class TextLayoutEngine extends FontResourceManager
                 }
             }
             if (!set.isEmpty()) {
-                map.put(name, new FontCollection(set.toArray(new FontFamily[0])));
+                // share the collection if the font families are unchanged
+                var prev = results.mPrevFontCollections.get(name);
+                if (prev != null && isSameFamilies(prev.getFamilies(), List.copyOf(set))) {
+                    map.put(name, prev);
+                } else {
+                    map.put(name, new FontCollection(set.toArray(new FontFamily[0])));
+                }
                 LOGGER.info(MARKER, "Loaded font: '{}', font set: [{}]", name,
                         set.stream().map(FontFamily::getFamilyName).collect(Collectors.joining(",")));
             } else {
@@ -754,6 +969,8 @@ public class TextLayoutEngine extends FontResourceManager
     }
 
     private static void loadSingleFont(@Nonnull ResourceManager resources,
+                                       @Nonnull Executor executor,
+                                       @Nonnull LoadResults results,
                                        ResourceLocation name,
                                        RawFontBundle bundle,
                                        String sourcePackId, int index,
@@ -761,9 +978,10 @@ public class TextLayoutEngine extends FontResourceManager
                                        @Nonnull GlyphProviderDefinition definition) {
         switch (definition.type()) {
             case BITMAP -> {
-                var bitmapFont = BitmapFont.create((BitmapProvider.Definition) definition, resources);
+                var bitmap = (BitmapProvider.Definition) definition;
                 bundle.families.add(
-                        new FontFamily(bitmapFont)
+                        loadFontAsync(name, sourcePackId, index, bitmap.file(), executor,
+                                () -> createBitmap(bitmap, metadata, resources, results))
                 );
             }
             case TTF -> {
@@ -785,7 +1003,8 @@ public class TextLayoutEngine extends FontResourceManager
                             ttf.skip(), index, name, sourcePackId);
                 }
                 bundle.families.add(
-                        createTTF(ttf.location(), resources)
+                        loadFontAsync(name, sourcePackId, index, ttf.location(), executor,
+                                () -> createTTF(ttf.location(), resources, results))
                 );
             }
             case SPACE -> {
@@ -806,11 +1025,109 @@ public class TextLayoutEngine extends FontResourceManager
         }
     }
 
+    /**
+     * Load a font file on the executor, decoding is independent of other fonts.
+     *
+     * @return a future of the font family, or null if failed
+     */
+    @Nonnull
+    private static CompletableFuture<FontFamily> loadFontAsync(ResourceLocation name,
+                                                               String sourcePackId, int index,
+                                                               ResourceLocation file,
+                                                               @Nonnull Executor executor,
+                                                               @Nonnull Supplier<FontFamily> loader) {
+        return CompletableFuture.supplyAsync(() -> {
+            final long startTime = System.nanoTime();
+            try {
+                FontFamily family = loader.get();
+                LOGGER.info(MARKER, "Loaded font file '{}' of providers[{}] in font '{}' in pack: '{}', " +
+                                "took {} ms", file, index, name, sourcePackId,
+                        (System.nanoTime() - startTime) / 1000000);
+                return family;
+            } catch (Exception e) {
+                LOGGER.warn(MARKER, "Failed to load font file '{}' of providers[{}] in font '{}' in pack: '{}'",
+                        file, index, name, sourcePackId, e);
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * TrueType fonts are shared by content hash, between providers and between reloads.
+     * The file is read once, the font is created from the same bytes only if it's new.
+     */
     @Nonnull
-    private static FontFamily createTTF(@Nonnull ResourceLocation file, ResourceManager resources) {
+    private static FontFamily createTTF(@Nonnull ResourceLocation file, ResourceManager resources,
+                                        @Nonnull LoadResults results) {
         var location = file.withPrefix("font/");
+        final byte[] data = readResource(location, resources);
+        return getOrCreateFontFile("ttf:" + hashBytes(data), location, results,
+                () -> {
+                    try (var stream = new ByteArrayInputStream(data)) {
+                        return FontFamily.createFamily(stream, false);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
+
+    /**
+     * Bitmap fonts are shared by content hash and definition, the texture is kept as well.
+     */
+    @Nonnull
+    private static FontFamily createBitmap(@Nonnull BitmapProvider.Definition definition, JsonObject metadata,
+                                           ResourceManager resources, @Nonnull LoadResults results) {
+        var location = definition.file().withPrefix("textures/");
+        // the resource pack may be closed on next reload, so the font keeps the encoded data
+        final byte[] data = readResource(location, resources);
+        return getOrCreateFontFile("bitmap:" + hashBytes(data) + ":" + metadata,
+                location, results,
+                () -> new FontFamily(BitmapFont.create(definition, data)));
+    }
+
+    /**
+     * Fonts are created outside the map, loaders of other fonts are not blocked.
+     * If two providers create the same font at the same time, the first one wins.
+     */
+    @Nonnull
+    private static FontFamily getOrCreateFontFile(@Nonnull String fingerprint, ResourceLocation location,
+                                                  @Nonnull LoadResults results,
+                                                  @Nonnull Supplier<FontFamily> factory) {
+        FontFamily family = results.mFontFiles.get(fingerprint);
+        if (family != null) {
+            return family;
+        }
+        family = results.mPrevFontFiles.get(fingerprint);
+        final boolean created = family == null;
+        if (created) {
+            family = factory.get();
+        } else {
+            LOGGER.debug(MARKER, "Reuse font file '{}', fingerprint: {}", location, fingerprint);
+        }
+        FontFamily prev = results.mFontFiles.putIfAbsent(fingerprint, family);
+        if (prev != null) {
+            if (created && family.getClosestMatch(FontPaint.NORMAL) instanceof BitmapFont bitmapFont) {
+                bitmapFont.close();
+            }
+            return prev;
+        }
+        return family;
+    }
+
+    @Nonnull
+    private static byte[] readResource(@Nonnull ResourceLocation location, ResourceManager resources) {
         try (var stream = resources.open(location)) {
-            return FontFamily.createFamily(stream, false);
+            return stream.readAllBytes();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Nonnull
+    private static String hashBytes(@Nonnull byte[] data) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(data));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -885,7 +1202,8 @@ public class TextLayoutEngine extends FontResourceManager
         TextLayout layout = mVanillaCache.get(mVanillaLookupKey.update(text, style));
         int nowFlags = 0;
         if (layout == null ||
-                ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags) {
+                ((nowFlags = layout.mComputedFlags) & computeFlags) != computeFlags ||
+                !layout.canReplaceDigits(text)) {
             layout = mProcessor.createVanillaLayout(text, style, mResLevel,
                     nowFlags | computeFlags);
             mVanillaCache.put(mVanillaLookupKey.copy(), layout);
@@ -1098,14 +1416,26 @@ public class TextLayoutEngine extends FontResourceManager
      */
     @Nonnull
     public FontCollection getFontCollection(@Nonnull ResourceLocation fontName) {
+        FontCollection fontCollection;
+        return (fontCollection = findFontCollection(fontName)) != null
+                ? fontCollection
+                : ModernUI.getSelectedTypeface();
+    }
+
+    /**
+     * Same as {@link #getFontCollection(ResourceLocation)}, but returns null instead of
+     * the fallback typeface.
+     *
+     * @param fontName a font name, see {@link Style#getFont()}
+     * @return the font collection, or null if there's no font with the given name
+     */
+    @Nullable
+    public FontCollection findFontCollection(@Nonnull ResourceLocation fontName) {
         if (mForceUnicodeFont == Boolean.TRUE &&
                 fontName.equals(Minecraft.DEFAULT_FONT)) {
             fontName = Minecraft.UNIFORM_FONT;
         }
-        FontCollection fontCollection;
-        return (fontCollection = mFontCollections.get(fontName)) != null
-                ? fontCollection
-                : ModernUI.getSelectedTypeface();
+        return mFontCollections.get(fontName);
     }
 
     public void dumpBitmapFonts() {
@@ -1115,20 +1445,15 @@ public class TextLayoutEngine extends FontResourceManager
             // XXX: remove extension name
             basePath = basePath.substring(0, basePath.length() - 4);
         }
-        int index = 0;
         for (var fc : mFontCollections.values()) {
             for (var family : fc.getFamilies()) {
                 var font = family.getClosestMatch(FontPaint.NORMAL);
                 if (font instanceof BitmapFont bmf) {
-                    if (basePath != null) {
-                        bmf.dumpAtlas(basePath + "_" + index + ".png");
-                        index++;
-                    } else {
-                        bmf.dumpAtlas(null);
-                    }
+                    bmf.dumpInfo();
                 }
             }
         }
+        BitmapFontAtlas.getInstance().dumpInfo(basePath);
     }
 
     @Nullable
@@ -1137,6 +1462,10 @@ public class TextLayoutEngine extends FontResourceManager
             // auto bake
             return bitmapFont.getGlyph(glyphId);
         }
+        if (font instanceof EmojiFont && !acquireEmoji(glyphId)) {
+            // streaming, see isEmojiPending()
+            return null;
+        }
         return mGlyphManager.lookupGlyph(font, devSize, glyphId);
     }
 
@@ -1311,22 +1640,23 @@ public class TextLayoutEngine extends FontResourceManager
                     LOGGER.warn(MARKER, awtFont + " does not support ASCII digits");
                     return null;
                 }
-                if (glyph == null) {
-                    continue;
-                }
             } else {
                 var gl = bitmapFont.getGlyph(chars[0]);
                 if (gl == null && i == 0) {
                     LOGGER.warn(MARKER, bitmapFont + " does not support ASCII digits");
                     return null;
                 }
-                if (gl == null) {
-                    continue;
-                }
-                advance = gl.advance;
+                advance = gl != null ? gl.advance : 0;
                 glyph = gl;
             }
-            glyphs[i] = glyph;
+            if (glyph == null) {
+                // keep digits at index 0 to 9, missing digits use '0'
+                glyphs[n] = glyphs[0];
+                offsets[n] = 0;
+                n++;
+                continue;
+            }
+            glyphs[n] = glyph;
             // '0' is standard, because it's wider than other digits in general
             if (i == 0) {
                 // 0 is standard advance
@@ -1414,10 +1744,28 @@ public class TextLayoutEngine extends FontResourceManager
         return new FastCharSet(glyphs, offsets);
     }
 
+    /**
+     * Lookup the layout results of printable ASCII characters with given font collection.
+     * This method is thread-safe.
+     *
+     * @param collection the font collection
+     * @param fontStyle  the font style, see {@link FontPaint}
+     * @param fontSize   the device font size
+     * @return the ASCII table
+     * @see TextLayoutProcessor#computeFontSize(float)
+     */
+    @Nonnull
+    public AsciiTable lookupAsciiTable(@Nonnull FontCollection collection, int fontStyle, int fontSize) {
+        return mAsciiTableMap.computeIfAbsent(
+                new AsciiTableDesc(collection, fontStyle, fontSize),
+                mCacheAsciiTable
+        );
+    }
+
     /**
      * FastCharSet have uniform advances. Offset[0] is the advance for all glyphs.
      * Other offsets is the relative X offset to center the glyph. Normalized to
-     * Minecraft GUI system.
+     * Minecraft GUI system. Glyphs at index 0 to 9 are always the ASCII digits.
      * <p>
      * This is used to render fast digits and obfuscated chars.
      */
@@ -1432,6 +1780,199 @@ public class TextLayoutEngine extends FontResourceManager
         }
     }
 
+    /**
+     * AsciiTable stores the layout results of each printable ASCII character (32 to 126),
+     * in device space. A character has a result only if it is laid out by a font that
+     * does no text shaping (bitmap fonts and space fonts), so that the layout of a run
+     * of these characters is exactly the concatenation of the results of each character.
+     * <p>
+     * This is used to perform fast layout for ASCII texts, bypassing itemization and
+     * the layout cache.
+     */
+    public static class AsciiTable {
+
+        public static final char FIRST_CHAR = ' ';
+        public static final char LAST_CHAR = '~';
+
+        /**
+         * Indexed by (char - FIRST_CHAR), null if the char requires full layout.
+         */
+        public final Font[] fonts;
+        public final int[] glyphs;
+        /**
+         * X offset of the glyph to the pen position.
+         */
+        public final float[] offsets;
+        public final float[] advances;
+
+        private AsciiTable(Font[] fonts, int[] glyphs, float[] offsets, float[] advances) {
+            this.fonts = fonts;
+            this.glyphs = glyphs;
+            this.offsets = offsets;
+            this.advances = advances;
+        }
+
+        /**
+         * Lays out each printable ASCII character separately with the standard layout path,
+         * and records the results that can be used for fast layout.
+         *
+         * @param collection the font collection
+         * @param fontStyle  the font style, see {@link FontPaint}
+         * @param fontSize   the device font size
+         * @return a new ASCII table
+         */
+        @Nonnull
+        public static AsciiTable create(@Nonnull FontCollection collection, int fontStyle, int fontSize) {
+            final int count = LAST_CHAR - FIRST_CHAR + 1;
+            Font[] fonts = new Font[count];
+            int[] glyphs = new int[count];
+            float[] offsets = new float[count];
+            float[] advances = new float[count];
+
+            FontPaint paint = new FontPaint();
+            paint.setFont(collection);
+            paint.setFontStyle(fontStyle);
+            paint.setFontSize(fontSize);
+            // grapheme cluster break of printable ASCII is locale-independent
+            paint.setLocale(Locale.ROOT);
+
+            char[] chars = new char[1];
+            float[] charAdvances = new float[1];
+            IntArrayList glyphList = new IntArrayList(1);
+            FloatArrayList positionList = new FloatArrayList(2);
+            ByteArrayList fontIndexList = new ByteArrayList(1);
+            ArrayList<Font> fontList = new ArrayList<>(1);
+            for (int i = 0; i < count; i++) {
+                chars[0] = (char) (FIRST_CHAR + i);
+                charAdvances[0] = 0;
+                glyphList.clear();
+                positionList.clear();
+                fontIndexList.clear();
+                fontList.clear();
+                float advance = ShapedText.doLayoutRun(
+                        chars, 0, 1, 0, 1,
+                        false, paint, 0,
+                        charAdvances, 0,
+                        glyphList, positionList,
+                        fontIndexList, f -> {
+                            int idx = fontList.indexOf(f);
+                            if (idx < 0) {
+                                idx = fontList.size();
+                                fontList.add(f);
+                            }
+                            return (byte) idx;
+                        },
+                        null, null
+                );
+                // exactly one glyph without text shaping
+                if (glyphList.size() != 1 || fontList.size() != 1) {
+                    continue;
+                }
+                Font font = fontList.get(0);
+                if ((font instanceof BitmapFont || font instanceof SpaceFont) &&
+                        positionList.getFloat(1) == 0 && charAdvances[0] == advance) {
+                    fonts[i] = font;
+                    glyphs[i] = glyphList.getInt(0);
+                    offsets[i] = positionList.getFloat(0);
+                    advances[i] = advance;
+                }
+            }
+            return new AsciiTable(fonts, glyphs, offsets, advances);
+        }
+
+        /**
+         * Returns whether a character may continue the font run of its previous character
+         * in font itemization, even if the previous font is not the preferred one.
+         * In that case, the per-character result is not reliable.
+         */
+        public static boolean isStickyChar(char c) {
+            return switch (c) {
+                case '!', ',', '-', '.', ':', ';', '?' -> true;
+                default -> false;
+            };
+        }
+
+        /**
+         * Returns whether the text range contains only printable ASCII characters.
+         */
+        public static boolean isPrintable(@Nonnull char[] text, int start, int limit) {
+            for (int i = start; i < limit; i++) {
+                char c = text[i];
+                if (c < FIRST_CHAR || c > LAST_CHAR) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns whether a left-to-right run can be laid out with this table, that is,
+         * all characters are printable ASCII without text shaping, and the font itemization
+         * of the run is the same as that of each character.
+         */
+        public boolean canLayout(@Nonnull char[] text, int start, int limit) {
+            Font lastFont = null;
+            for (int i = start; i < limit; i++) {
+                char c = text[i];
+                if (c < FIRST_CHAR || c > LAST_CHAR) {
+                    return false;
+                }
+                Font font = fonts[c - FIRST_CHAR];
+                if (font == null) {
+                    return false;
+                }
+                if (lastFont != null && font != lastFont &&
+                        isStickyChar(c) && lastFont.hasGlyph(c, 0)) {
+                    // itemization may differ
+                    return false;
+                }
+                lastFont = font;
+            }
+            return true;
+        }
+
+        /**
+         * Lays out a left-to-right run that {@link #canLayout(char[], int, int)}, the result
+         * is the same as {@link ShapedText#doLayoutRun}, but it is the concatenation of
+         * precomputed results of each character. Each character maps to exactly one glyph.
+         *
+         * @param advances    the advances of each character to write, at the same indices
+         *                    as the text, or null
+         * @param offset      the pen position of the run start
+         * @param glyphs      the glyphs to append
+         * @param positions   the glyph positions x1 y1 x2 y2... to append
+         * @param fontIndices the font indices to append
+         * @param fontMap     the font to font index function, applied when the font changes
+         * @return the pen position of the run end
+         */
+        public float doLayoutRun(@Nonnull char[] text, int start, int limit,
+                                 @Nullable float[] advances, float offset,
+                                 @Nonnull IntArrayList glyphs, @Nonnull FloatArrayList positions,
+                                 @Nonnull ByteArrayList fontIndices,
+                                 @Nonnull Function<Font, Byte> fontMap) {
+            Font lastFont = null;
+            byte fontIdx = 0;
+            for (int i = start; i < limit; i++) {
+                int index = text[i] - FIRST_CHAR;
+                Font font = fonts[index];
+                if (font != lastFont) {
+                    fontIdx = fontMap.apply(font);
+                    lastFont = font;
+                }
+                float adv = this.advances[index];
+                if (advances != null) {
+                    advances[i] = adv;
+                }
+                glyphs.add(this.glyphs[index]);
+                positions.add(offset + offsets[index]);
+                positions.add(0);
+                fontIndices.add(fontIdx);
+                offset += adv;
+            }
+            return offset;
+        }
+    }
+
     /**
      * Pre-cache the ASCII digits to allow for fast glyph substitution. Called once from the constructor and called any
      * time the font selection
@@ -33,6 +33,7 @@ import net.minecraft.resources.ResourceLocation;
 import net.minecraft.util.*;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.*;
 import java.util.function.Function;
 
@@ -97,6 +98,10 @@ public class TextLayoutProcessor {
      * Font names to use in logical order. Same indexing with {@link #mStyles}.
      */
     private final ArrayList<ResourceLocation> mFontNames = new ArrayList<>();
+    /**
+     * Font names that have no font collection, the fallback typeface is used instead.
+     */
+    private final ArrayList<ResourceLocation> mFallbackFontNames = new ArrayList<>();
 
     /*
      * Array of temporary style carriers.
@@ -210,6 +215,36 @@ public class TextLayoutProcessor {
 
     private boolean mComputeAdvances = true;
     private boolean mComputeLineBoundaries = true;
+    /**
+     * The length of the plain text (without formatting codes) being laid out, it's
+     * {@link #mBuilder}'s length, or the string's length for the ASCII fast path.
+     */
+    private int mTextLength;
+
+    /**
+     * Strip indices and string indices of ASCII digits, for vanilla layout.
+     */
+    private final IntArrayList mDigitChars = new IntArrayList();
+    private final IntArrayList mDigitStrings = new IntArrayList();
+    /**
+     * Strip indices of digits that will be replaced on the fly, they are laid out as '0'.
+     *
+     * @see VanillaLayoutKey#isFastDigit(String, int)
+     */
+    private final BitSet mFastDigits = new BitSet();
+    /**
+     * Glyph indices of fast digits and their string indices, in visual order.
+     */
+    private final IntArrayList mFastDigitGlyphs = new IntArrayList();
+    private final IntArrayList mFastDigitIndices = new IntArrayList();
+    /**
+     * The raw string (with formatting codes) of vanilla layout.
+     */
+    private String mFastDigitSource;
+    /**
+     * Whether some digits are laid out as they are, instead of fast digits.
+     */
+    private boolean mExactDigits;
 
     /**
      * Always LTR.
@@ -226,6 +261,19 @@ public class TextLayoutProcessor {
         return true;
     };
 
+    /**
+     * Same as {@link #mSequenceBuilder}, but also records ASCII digits for fast digit replacement.
+     *
+     * @see StringDecomposer#iterateFormatted(String, Style, FormattedCharSink)
+     */
+    private final FormattedCharSink mVanillaBuilder = (index, style, codePoint) -> {
+        if (codePoint <= '9' && codePoint >= '0') {
+            mDigitChars.add(mBuilder.length());
+            mDigitStrings.add(index);
+        }
+        return mSequenceBuilder.accept(index, style, codePoint);
+    };
+
     /**
      * Transfer code points in logical order.
      */
@@ -369,15 +417,15 @@ public class TextLayoutProcessor {
                 throw new AssertionError();
             }
             if (mComputeAdvances &&
-                    mBuilder.length() != mAdvances.size()) {
+                    mTextLength != mAdvances.size()) {
                 throw new AssertionError();
             }
             if (mGlyphs.size() != mGlyphFlags.size()) {
                 throw new AssertionError();
             }
             if (mComputeLineBoundaries &&
-                    !mBuilder.isEmpty() &&
-                    mBuilder.length() != mLineBoundaries.getInt(mLineBoundaries.size() - 1)) {
+                    mTextLength != 0 &&
+                    mTextLength != mLineBoundaries.getInt(mLineBoundaries.size() - 1)) {
                 ModernUI.LOGGER.error("Last char cannot break line?");
             }
             if (mComputeAdvances &&
@@ -388,6 +436,7 @@ public class TextLayoutProcessor {
         mBuilder.clear();
         mStyles.clear();
         mFontNames.clear();
+        mFallbackFontNames.clear();
         mGlyphs.clear();
         mFontIndices.clear();
         mFontVec.clear();
@@ -398,16 +447,28 @@ public class TextLayoutProcessor {
         mGlyphFlags.clear();
         mLineBoundaries.clear();
         mTotalAdvance = 0;
+        mTextLength = 0;
         mHasEffect = false;
         //mHasFastDigit = false;
         mHasColorEmoji = false;
+        mDigitChars.clear();
+        mDigitStrings.clear();
+        mFastDigits.clear();
+        mFastDigitGlyphs.clear();
+        mFastDigitIndices.clear();
+        mFastDigitSource = null;
+        mExactDigits = false;
     }
 
     @Nonnull
     public TextLayout createVanillaLayout(@Nonnull String text, @Nonnull Style style,
                                           int resLevel, int computeFlags) {
-        StringDecomposer.iterateFormatted(text, style, mSequenceBuilder);
-        TextLayout layout = createNewLayout(resLevel, computeFlags);
+        TextLayout layout = createAsciiLayout(text, style, resLevel, computeFlags);
+        if (layout == null) {
+            StringDecomposer.iterateFormatted(text, style, mVanillaBuilder);
+            mFastDigitSource = text;
+            layout = createNewLayout(resLevel, computeFlags);
+        }
         if (DEBUG) {
             ModernUI.LOGGER.info("Performed Vanilla Layout: {}, {}, {}",
                     mBuilder.toString(), text, layout);
@@ -535,21 +596,12 @@ public class TextLayoutProcessor {
     @Nonnull
     private TextLayout createNewLayout(int resLevel, int computeFlags) {
         if (!mBuilder.isEmpty()) {
-            // locale for GCB (grapheme cluster break)
-            mFontPaint.setLocale(ModernUI.getSelectedLocale());
-
-            mComputeAdvances = (computeFlags & TextLayoutEngine.COMPUTE_ADVANCES) != 0;
-            mComputeLineBoundaries = (computeFlags & TextLayoutEngine.COMPUTE_LINE_BOUNDARIES) != 0;
-
-            int fontSize = computeFontSize(resLevel);
-            mFontPaint.setFontSize(fontSize);
-
-            // pre allocate memory
-            if (mComputeAdvances) {
-                mAdvances.size(mBuilder.length());
-            }
+            prepareLayout(mBuilder.length(), resLevel, computeFlags);
             // make a copied buffer
             final char[] textBuf = mBuilder.toCharArray();
+            if (!mDigitChars.isEmpty()) {
+                markFastDigits(textBuf);
+            }
             // steps 2-5
             analyzeBidi(textBuf);
             /*if (raw != null) {
@@ -559,42 +611,205 @@ public class TextLayoutProcessor {
                 float guiScale = mEngine.getGuiScale();
                 mTotalAdvance = Math.round(mTotalAdvance * guiScale) / guiScale;
             }*/
-            float[] positions = mPositions.toFloatArray();
-            for (int i = 0; i < positions.length; i++) {
-                positions[i] /= resLevel;
+            return buildLayout(textBuf, resLevel, computeFlags);
+        }
+        return TextLayout.makeEmpty();
+    }
+
+    /**
+     * Fast path of {@link #createVanillaLayout} for a string that contains only printable ASCII
+     * characters, it has no formatting codes, so the whole string is a single style run. If the
+     * text direction is left-to-right, the string is a single bidi run as well, then the layout
+     * is done by {@link #handleAsciiRun} without building the stripped text, bidi analysis and
+     * splitting style runs. Each digit is a fast digit, since no digit modifier follows.
+     *
+     * @return the layout, or null to perform full layout
+     */
+    @Nullable
+    private TextLayout createAsciiLayout(@Nonnull String text, @Nonnull Style style,
+                                         int resLevel, int computeFlags) {
+        final int length = text.length();
+        if (length == 0) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < TextLayoutEngine.AsciiTable.FIRST_CHAR ||
+                    c > TextLayoutEngine.AsciiTable.LAST_CHAR) {
+                return null;
             }
-            byte[] fontIndices;
-            if (mFontVec.size() > 1) {
-                fontIndices = mFontIndices.toByteArray();
-            } else {
-                fontIndices = null;
+        }
+        // ASCII has no strong right-to-left characters, see analyzeBidi()
+        TextDirectionHeuristic dir = mEngine.getTextDirectionHeuristic();
+        if (dir != TextDirectionHeuristics.LTR &&
+                dir != TextDirectionHeuristics.FIRSTSTRONG_LTR &&
+                dir != TextDirectionHeuristics.ANYRTL_LTR) {
+            return null;
+        }
+        final int styleFlags = CharacterStyle.flatten(style);
+        if ((styleFlags & CharacterStyle.OBFUSCATED_MASK) != 0) {
+            return null;
+        }
+        int fontStyle = FontPaint.NORMAL;
+        if ((styleFlags & CharacterStyle.BOLD_MASK) != 0) {
+            fontStyle |= FontPaint.BOLD;
+        }
+        if ((styleFlags & CharacterStyle.ITALIC_MASK) != 0) {
+            fontStyle |= FontPaint.ITALIC;
+        }
+
+        prepareLayout(length, resLevel, computeFlags);
+        mFontPaint.setFont(getFontCollection(style.getFont()));
+        mFontPaint.setFontStyle(fontStyle);
+
+        final char[] textBuf = text.toCharArray();
+        boolean hasDigit = false;
+        for (int i = 0; i < length; i++) {
+            if (textBuf[i] <= '9' && textBuf[i] >= '0') {
+                textBuf[i] = '0';
+                hasDigit = true;
             }
-            float[] advances;
-            if (mComputeAdvances) {
-                advances = mAdvances.toFloatArray();
-                for (int i = 0; i < mBuilder.length(); i++) {
-                    advances[i] /= resLevel;
+        }
+        if (!handleAsciiRun(textBuf, 0, length, styleFlags, fontStyle)) {
+            mAdvances.clear();
+            return null;
+        }
+        if (hasDigit) {
+            // one glyph per char, glyph indices are char indices and string indices
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c <= '9' && c >= '0') {
+                    mFastDigitGlyphs.add(i);
+                    mFastDigitIndices.add(i);
                 }
-            } else {
-                advances = null;
             }
-            int[] lineBoundaries;
-            if (mComputeLineBoundaries) {
-                lineBoundaries = mLineBoundaries.toIntArray();
-                // sort line boundaries to logical order, because runs are in visual order
-                Arrays.sort(lineBoundaries);
-            } else {
-                lineBoundaries = null;
+            mFastDigitSource = text;
+        }
+        if (mComputeLineBoundaries) {
+            computeLineBoundaries(textBuf, 0, length);
+        }
+        return buildLayout(textBuf, resLevel, computeFlags);
+    }
+
+    /**
+     * Set up the paint and compute flags for a new layout.
+     *
+     * @param length the length of the plain text (without formatting codes)
+     */
+    private void prepareLayout(int length, int resLevel, int computeFlags) {
+        mTextLength = length;
+        // locale for GCB (grapheme cluster break)
+        mFontPaint.setLocale(ModernUI.getSelectedLocale());
+
+        mComputeAdvances = (computeFlags & TextLayoutEngine.COMPUTE_ADVANCES) != 0;
+        mComputeLineBoundaries = (computeFlags & TextLayoutEngine.COMPUTE_LINE_BOUNDARIES) != 0;
+
+        int fontSize = computeFontSize(resLevel);
+        mFontPaint.setFontSize(fontSize);
+
+        // pre allocate memory
+        if (mComputeAdvances) {
+            mAdvances.size(length);
+        }
+    }
+
+    /**
+     * Create the layout from the results of all runs.
+     *
+     * @param textBuf the plain text (without formatting codes) in logical order
+     */
+    @Nonnull
+    private TextLayout buildLayout(@Nonnull char[] textBuf, int resLevel, int computeFlags) {
+        float[] positions = mPositions.toFloatArray();
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] /= resLevel;
+        }
+        byte[] fontIndices;
+        if (mFontVec.size() > 1) {
+            fontIndices = mFontIndices.toByteArray();
+        } else {
+            fontIndices = null;
+        }
+        float[] advances;
+        if (mComputeAdvances) {
+            advances = mAdvances.toFloatArray();
+            for (int i = 0; i < textBuf.length; i++) {
+                advances[i] /= resLevel;
             }
-            mTotalAdvance /= resLevel;
-            return new TextLayout(textBuf, mGlyphs.toIntArray(),
-                    positions, fontIndices,
-                    mFontVec.toArray(new Font[0]),
-                    advances, mGlyphFlags.toIntArray(),
-                    lineBoundaries, mTotalAdvance,
-                    mHasEffect, mHasColorEmoji, resLevel, computeFlags);
+        } else {
+            advances = null;
+        }
+        int[] lineBoundaries;
+        if (mComputeLineBoundaries) {
+            lineBoundaries = mLineBoundaries.toIntArray();
+            // sort line boundaries to logical order, because runs are in visual order
+            Arrays.sort(lineBoundaries);
+        } else {
+            lineBoundaries = null;
+        }
+        int[] fastDigitGlyphs;
+        int[] fastDigitIndices;
+        String fastDigitSource;
+        if (!mFastDigitGlyphs.isEmpty()) {
+            fastDigitGlyphs = mFastDigitGlyphs.toIntArray();
+            fastDigitIndices = mFastDigitIndices.toIntArray();
+        } else {
+            fastDigitGlyphs = null;
+            fastDigitIndices = null;
+        }
+        if (fastDigitGlyphs != null || mExactDigits) {
+            fastDigitSource = mFastDigitSource;
+        } else {
+            fastDigitSource = null;
+        }
+        mTotalAdvance /= resLevel;
+        return new TextLayout(textBuf, mGlyphs.toIntArray(),
+                positions, fontIndices,
+                mFontVec.toArray(new Font[0]),
+                advances, mGlyphFlags.toIntArray(),
+                lineBoundaries, mTotalAdvance,
+                mHasEffect, mHasColorEmoji, resLevel, computeFlags,
+                fastDigitGlyphs, fastDigitIndices, fastDigitSource, mExactDigits,
+                mFallbackFontNames.isEmpty() ? null : mFallbackFontNames.toArray(new ResourceLocation[0]));
+    }
+
+    /**
+     * Returns the font collection to lay out the text, or the fallback typeface,
+     * and records the font name if it has no font collection.
+     *
+     * @see TextLayoutEngine#getFontCollection(ResourceLocation)
+     */
+    @Nonnull
+    private FontCollection getFontCollection(@Nonnull ResourceLocation fontName) {
+        FontCollection fontCollection = mEngine.findFontCollection(fontName);
+        if (fontCollection != null) {
+            return fontCollection;
+        }
+        if (!mFallbackFontNames.contains(fontName)) {
+            mFallbackFontNames.add(fontName);
+        }
+        return ModernUI.getSelectedTypeface();
+    }
+
+    /**
+     * Replace ASCII digits that satisfy the fast digit replacement contract with '0', so that
+     * layouts of strings that only differ in their digits are identical. The correct digit
+     * glyphs will be substituted on the fly when rendering.
+     *
+     * @param text the full plain text (without formatting codes) in logical order
+     * @see VanillaLayoutKey
+     */
+    private void markFastDigits(@Nonnull char[] text) {
+        for (int i = 0, e = mDigitChars.size(); i < e; i++) {
+            int index = mDigitChars.getInt(i);
+            if (index + 1 < text.length &&
+                    VanillaLayoutKey.isDigitModifier(text[index + 1])) {
+                // may be a keycap emoji sequence
+                continue;
+            }
+            text[index] = '0';
+            mFastDigits.set(index);
         }
-        return TextLayout.makeEmpty();
     }
 
     /**
@@ -806,21 +1021,6 @@ public class TextLayoutProcessor {
      */
     private void handleStyleRun(@Nonnull char[] text, int start, int limit, boolean isRtl,
                                 int styleFlags, ResourceLocation fontName) {
-        /*if (fastDigit) {
-         *//*
-         * Convert all digits in the string to a '0' before layout to ensure that any glyphs replaced on the fly
-         * will all have the same positions. Under Windows, Java's "SansSerif" logical font uses the "Arial" font
-         * for digits, in which the "1" digit is slightly narrower than all other digits. Digits are not on SMP.
-         *//*
-            for (int i = start; i < limit; i++) {
-                if (text[i] <= '9' && text[i] >= '0' &&
-                        // also check COMBINING ENCLOSING KEYCAP, don't break GCB
-                        (i + 1 >= limit || text[i + 1] != Emoji.VARIATION_SELECTOR_16)) {
-                    text[i] = '0';
-                }
-            }
-        }*/
-
         int fontStyle = FontPaint.NORMAL;
         if ((styleFlags & CharacterStyle.BOLD_MASK) != 0) {
             fontStyle |= FontPaint.BOLD;
@@ -829,39 +1029,16 @@ public class TextLayoutProcessor {
             fontStyle |= FontPaint.ITALIC;
         }
 
-        mFontPaint.setFont(mEngine.getFontCollection(fontName));
+        mFontPaint.setFont(getFontCollection(fontName));
         mFontPaint.setFontStyle(fontStyle);
 
         if ((styleFlags & CharacterStyle.OBFUSCATED_MASK) == 0) {
-            int glyphStart = mGlyphs.size();
-
-            float advance = ShapedText.doLayoutRun(
-                    text, start, limit, start, limit,
-                    isRtl, mFontPaint, 0, // <- text array starts at 0
-                    mComputeAdvances ? mAdvances.elements() : null,
-                    mTotalAdvance, mGlyphs, mPositions,
-                    mFontIndices, f -> mFontMap.computeIfAbsent(f, mNextID),
-                    null, null
-            );
-
-            for (int glyphIndex = glyphStart,
-                 glyphEnd = mGlyphs.size();
-                 glyphIndex < glyphEnd;
-                 glyphIndex++) {
-                mHasEffect |= (styleFlags & CharacterStyle.EFFECT_MASK) != 0;
-                int glyphFlags = styleFlags;
-                var font = mFontVec.get(mFontIndices.getByte(glyphIndex));
-                if (font instanceof BitmapFont) {
-                    glyphFlags |= CharacterStyle.BITMAP_REPLACEMENT;
-                } else if (font instanceof EmojiFont) {
-                    glyphFlags |= CharacterStyle.COLOR_EMOJI_REPLACEMENT | 0xFFFFFF;
-                    glyphFlags &= ~CharacterStyle.IMPLICIT_COLOR_MASK;
-                    mHasColorEmoji = true;
-                }
-                mGlyphFlags.add(glyphFlags);
+            int fastDigit = mFastDigits.nextSetBit(start);
+            if (fastDigit < 0 || fastDigit >= limit) {
+                handleShapingRun(text, start, limit, isRtl, styleFlags, fontStyle);
+            } else {
+                handleFastDigitRuns(text, start, limit, isRtl, styleFlags, fontStyle);
             }
-
-            mTotalAdvance += advance;
         } else {
             final var items = mFontPaint.getFont()
                     .itemize(text, start, limit);
@@ -918,20 +1095,213 @@ public class TextLayoutProcessor {
         }
 
         if (mComputeLineBoundaries) {
-            // Compute line break boundaries, will be sorted into logical order.
-            BreakIterator breaker = BreakIterator.getLineInstance(
-                    LineBreaker.getLocaleWithLineBreakOption(mFontPaint.getLocale(), sLbStyle, sLbWordStyle)
+            computeLineBoundaries(text, start, limit);
+        }
+    }
+
+    /**
+     * Compute line break boundaries of a style run, will be sorted into logical order.
+     */
+    private void computeLineBoundaries(@Nonnull char[] text, int start, int limit) {
+        BreakIterator breaker = BreakIterator.getLineInstance(
+                LineBreaker.getLocaleWithLineBreakOption(mFontPaint.getLocale(), sLbStyle, sLbWordStyle)
+        );
+        final CharArrayIterator charIterator = new CharArrayIterator(text, start, limit);
+        breaker.setText(charIterator);
+        int prevPos = start, currPos;
+        while ((currPos = breaker.following(prevPos)) != BreakIterator.DONE) {
+            mLineBoundaries.add(currPos);
+            prevPos = currPos;
+        }
+    }
+
+    /**
+     * Perform text shaping on a run with same layout direction and style, and append the result.
+     *
+     * @param text       the plain text (without formatting codes) to analyze in logical order
+     * @param start      start index (inclusive) of the text
+     * @param limit      end index (exclusive) of the text
+     * @param isRtl      layout direction
+     * @param styleFlags the style to lay out the text
+     * @param fontStyle  the font style derived from style flags
+     */
+    private void handleShapingRun(@Nonnull char[] text, int start, int limit, boolean isRtl,
+                                  int styleFlags, int fontStyle) {
+        if (isRtl || !handleAsciiRun(text, start, limit, styleFlags, fontStyle)) {
+            int glyphStart = mGlyphs.size();
+
+            float advance = ShapedText.doLayoutRun(
+                    text, start, limit, start, limit,
+                    isRtl, mFontPaint, 0, // <- text array starts at 0
+                    mComputeAdvances ? mAdvances.elements() : null,
+                    mTotalAdvance, mGlyphs, mPositions,
+                    mFontIndices, f -> mFontMap.computeIfAbsent(f, mNextID),
+                    null, null
             );
-            final CharArrayIterator charIterator = new CharArrayIterator(text, start, limit);
-            breaker.setText(charIterator);
-            int prevPos = start, currPos;
-            while ((currPos = breaker.following(prevPos)) != BreakIterator.DONE) {
-                mLineBoundaries.add(currPos);
-                prevPos = currPos;
+
+            for (int glyphIndex = glyphStart,
+                 glyphEnd = mGlyphs.size();
+                 glyphIndex < glyphEnd;
+                 glyphIndex++) {
+                mHasEffect |= (styleFlags & CharacterStyle.EFFECT_MASK) != 0;
+                int glyphFlags = styleFlags;
+                var font = mFontVec.get(mFontIndices.getByte(glyphIndex));
+                if (font instanceof BitmapFont) {
+                    glyphFlags |= CharacterStyle.BITMAP_REPLACEMENT;
+                } else if (font instanceof EmojiFont) {
+                    glyphFlags |= CharacterStyle.COLOR_EMOJI_REPLACEMENT | 0xFFFFFF;
+                    glyphFlags &= ~CharacterStyle.IMPLICIT_COLOR_MASK;
+                    mHasColorEmoji = true;
+                }
+                mGlyphFlags.add(glyphFlags);
+            }
+
+            mTotalAdvance += advance;
+        }
+    }
+
+    /**
+     * Split the style run into fast digit runs and other runs, in visual order. Each fast digit
+     * is laid out as '0' and maps to exactly one glyph, then the glyph can be replaced with the
+     * correct digit glyph on the fly.
+     *
+     * @param text       the plain text (without formatting codes) to analyze in logical order
+     * @param start      start index (inclusive) of the text
+     * @param limit      end index (exclusive) of the text
+     * @param isRtl      layout direction
+     * @param styleFlags the style to lay out the text
+     * @param fontStyle  the font style derived from style flags
+     */
+    private void handleFastDigitRuns(@Nonnull char[] text, int start, int limit, boolean isRtl,
+                                     int styleFlags, int fontStyle) {
+        final BitSet fastDigits = mFastDigits;
+        if (isRtl) {
+            int runLimit = limit;
+            while (runLimit > start) {
+                boolean isDigit = fastDigits.get(runLimit - 1);
+                int runStart = Math.max(start, (isDigit
+                        ? fastDigits.previousClearBit(runLimit - 1)
+                        : fastDigits.previousSetBit(runLimit - 1)) + 1);
+                if (isDigit) {
+                    handleFastDigitRun(text, runStart, runLimit, true, styleFlags, fontStyle);
+                } else {
+                    handleShapingRun(text, runStart, runLimit, true, styleFlags, fontStyle);
+                }
+                runLimit = runStart;
+            }
+        } else {
+            int runStart = start;
+            while (runStart < limit) {
+                boolean isDigit = fastDigits.get(runStart);
+                int runLimit = isDigit
+                        ? fastDigits.nextClearBit(runStart)
+                        : fastDigits.nextSetBit(runStart);
+                if (runLimit < 0 || runLimit > limit) {
+                    runLimit = limit;
+                }
+                if (isDigit) {
+                    handleFastDigitRun(text, runStart, runLimit, false, styleFlags, fontStyle);
+                } else {
+                    handleShapingRun(text, runStart, runLimit, false, styleFlags, fontStyle);
+                }
+                runStart = runLimit;
             }
         }
     }
 
+    private void handleFastDigitRun(@Nonnull char[] text, int start, int limit, boolean isRtl,
+                                    int styleFlags, int fontStyle) {
+        final int glyphStart = mGlyphs.size();
+        final float totalAdvance = mTotalAdvance;
+        final boolean hasColorEmoji = mHasColorEmoji;
+        handleShapingRun(text, start, limit, isRtl, styleFlags, fontStyle);
+        final int count = limit - start;
+        boolean oneToOne = mGlyphs.size() - glyphStart == count;
+        for (int k = 0; oneToOne && k < count; k++) {
+            oneToOne = (mGlyphFlags.getInt(glyphStart + k) & CharacterStyle.COLOR_EMOJI_REPLACEMENT) == 0;
+        }
+        // digits are consecutive
+        final int digitStart = Arrays.binarySearch(mDigitChars.elements(), 0, mDigitChars.size(), start);
+        if (!oneToOne) {
+            // the glyphs can't be replaced, undo the run and lay out the actual digits,
+            // then the layout is only valid for this string, see TextLayout.canReplaceDigits()
+            if (DEBUG) {
+                ModernUI.LOGGER.warn("Fast digits are not one-to-one mapping: {}",
+                        new String(text, start, count));
+            }
+            mGlyphs.size(glyphStart);
+            mPositions.size(glyphStart << 1);
+            mFontIndices.size(glyphStart);
+            mGlyphFlags.size(glyphStart);
+            if (mComputeAdvances) {
+                Arrays.fill(mAdvances.elements(), start, limit, 0);
+            }
+            mTotalAdvance = totalAdvance;
+            mHasColorEmoji = hasColorEmoji;
+            for (int k = 0; k < count; k++) {
+                text[start + k] = mFastDigitSource.charAt(mDigitStrings.getInt(digitStart + k));
+            }
+            handleShapingRun(text, start, limit, isRtl, styleFlags, fontStyle);
+            mExactDigits = true;
+            return;
+        }
+        for (int k = 0; k < count; k++) {
+            int glyphIndex = glyphStart + k;
+            mFastDigitGlyphs.add(glyphIndex);
+            // glyphs are in visual order
+            mFastDigitIndices.add(mDigitStrings.getInt(
+                    digitStart + (isRtl ? count - 1 - k : k)));
+        }
+    }
+
+    /**
+     * Fast path of {@link #handleStyleRun} for a left-to-right run that contains only printable
+     * ASCII characters, and all of them are laid out by fonts that do no text shaping. Then the
+     * layout is the concatenation of precomputed results of each character.
+     *
+     * @param text       the plain text (without formatting codes) to analyze in logical order
+     * @param start      start index (inclusive) of the text
+     * @param limit      end index (exclusive) of the text
+     * @param styleFlags the style to lay out the text
+     * @param fontStyle  the font style derived from style flags
+     * @return true if handled, or false to perform full layout
+     * @see TextLayoutEngine.AsciiTable
+     */
+    private boolean handleAsciiRun(@Nonnull char[] text, int start, int limit,
+                                   int styleFlags, int fontStyle) {
+        if (!TextLayoutEngine.AsciiTable.isPrintable(text, start, limit)) {
+            return false;
+        }
+        final TextLayoutEngine.AsciiTable table = mEngine.lookupAsciiTable(
+                mFontPaint.getFont(), fontStyle, mFontPaint.getFontSize());
+        if (!table.canLayout(text, start, limit)) {
+            return false;
+        }
+
+        mTotalAdvance = table.doLayoutRun(
+                text, start, limit,
+                mComputeAdvances ? mAdvances.elements() : null,
+                mTotalAdvance, mGlyphs, mPositions,
+                mFontIndices, f -> mFontMap.computeIfAbsent(f, mNextID)
+        );
+
+        final Font[] fonts = table.fonts;
+        Font lastFont = null;
+        int glyphFlags = styleFlags;
+        for (int i = start; i < limit; i++) {
+            Font font = fonts[text[i] - TextLayoutEngine.AsciiTable.FIRST_CHAR];
+            if (font != lastFont) {
+                glyphFlags = font instanceof BitmapFont
+                        ? styleFlags | CharacterStyle.BITMAP_REPLACEMENT
+                        : styleFlags;
+                lastFont = font;
+            }
+            mGlyphFlags.add(glyphFlags);
+        }
+        mHasEffect |= (styleFlags & CharacterStyle.EFFECT_MASK) != 0;
+        return true;
+    }
+
     /*
      * Finally, we got a piece of text with same layout direction, font style and whether to be obfuscated.
      * This run is in visual order.
@@ -96,23 +96,29 @@ public class TextRenderEffect {
     public static void drawUnderline(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
                                      float start, float end, float baseline,
                                      int r, int g, int b, int a, int light) {
+        drawUnderline(matrix, builder, start, end, baseline, EFFECT_DEPTH, r, g, b, a, light);
+    }
+
+    public static void drawUnderline(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
+                                     float start, float end, float baseline, float depth,
+                                     int r, int g, int b, int a, int light) {
         baseline += UNDERLINE_OFFSET;
-        builder.vertex(matrix, start, baseline + UNDERLINE_THICKNESS, EFFECT_DEPTH)
+        builder.vertex(matrix, start, baseline + UNDERLINE_THICKNESS, depth)
                 .color(r, g, b, a)
                 .uv(0, 1)
                 .uv2(light)
                 .endVertex();
-        builder.vertex(matrix, end, baseline + UNDERLINE_THICKNESS, EFFECT_DEPTH)
+        builder.vertex(matrix, end, baseline + UNDERLINE_THICKNESS, depth)
                 .color(r, g, b, a)
                 .uv(1, 1)
                 .uv2(light)
                 .endVertex();
-        builder.vertex(matrix, end, baseline, EFFECT_DEPTH)
+        builder.vertex(matrix, end, baseline, depth)
                 .color(r, g, b, a)
                 .uv(1, 0)
                 .uv2(light)
                 .endVertex();
-        builder.vertex(matrix, start, baseline, EFFECT_DEPTH)
+        builder.vertex(matrix, start, baseline, depth)
                 .color(r, g, b, a)
                 .uv(0, 0)
                 .uv2(light)
@@ -139,23 +145,29 @@ public class TextRenderEffect {
     public static void drawStrikethrough(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
                                          float start, float end, float baseline,
                                          int r, int g, int b, int a, int light) {
+        drawStrikethrough(matrix, builder, start, end, baseline, EFFECT_DEPTH, r, g, b, a, light);
+    }
+
+    public static void drawStrikethrough(@Nonnull Matrix4f matrix, @Nonnull VertexConsumer builder,
+                                         float start, float end, float baseline, float depth,
+                                         int r, int g, int b, int a, int light) {
         baseline += STRIKETHROUGH_OFFSET;
-        builder.vertex(matrix, start, baseline + STRIKETHROUGH_THICKNESS, EFFECT_DEPTH)
+        builder.vertex(matrix, start, baseline + STRIKETHROUGH_THICKNESS, depth)
                 .color(r, g, b, a)
                 .uv(0, 1)
                 .uv2(light)
                 .endVertex();
-        builder.vertex(matrix, end, baseline + STRIKETHROUGH_THICKNESS, EFFECT_DEPTH)
+        builder.vertex(matrix, end, baseline + STRIKETHROUGH_THICKNESS, depth)
                 .color(r, g, b, a)
                 .uv(1, 1)
                 .uv2(light)
                 .endVertex();
-        builder.vertex(matrix, end, baseline, EFFECT_DEPTH)
+        builder.vertex(matrix, end, baseline, depth)
                 .color(r, g, b, a)
                 .uv(1, 0)
                 .uv2(light)
                 .endVertex();
-        builder.vertex(matrix, start, baseline, EFFECT_DEPTH)
+        builder.vertex(matrix, start, baseline, depth)
                 .color(r, g, b, a)
                 .uv(0, 0)
                 .uv2(light)
@@ -0,0 +1,41 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text.mixin;
+
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measure and resize fixed text buffers.
+ */
+@Mixin(BufferBuilder.class)
+public interface AccessBufferBuilder {
+
+    @Accessor("buffer")
+    ByteBuffer getBuffer();
+
+    @Accessor("renderedBufferPointer")
+    int getRenderedBufferPointer();
+
+    @Accessor("nextElementByte")
+    int getNextElementByte();
+}
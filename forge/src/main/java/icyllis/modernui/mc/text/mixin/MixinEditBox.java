@@ -48,7 +48,7 @@ import java.util.function.BiFunction;
  * <li>Fixes some bidirectional text rendering bugs (not editing).</li>
  * <li>Fixes possible IndexOutOfBoundsException crash.</li>
  * <li>Use floating-point text advance precision.</li>
- * <li>Increases dynamic layout performance.</li>
+ * <li>Increases dynamic layout performance, plain text is laid out incrementally.</li>
  * <li>Adjust text highlight style.</li>
  * <li>Adjust text cursor rendering position.</li>
  * </ul>
@@ -96,6 +96,10 @@ public abstract class MixinEditBox extends AbstractWidget {
     @Shadow
     private BiFunction<String, Integer, FormattedCharSequence> formatter;
 
+    @Unique
+    @Nullable
+    private EditableTextLayout modernUI_MC$editableLayout;
+
     public MixinEditBox(int x, int y, int w, int h, Component msg) {
         super(x, y, w, h, msg);
     }
@@ -130,8 +134,16 @@ public abstract class MixinEditBox extends AbstractWidget {
 
         final int color = isEditable ? textColor : textColorUneditable;
 
-        final String viewText =
-                engine.getStringSplitter().headByWidth(value.substring(displayPos), getInnerWidth(), Style.EMPTY);
+        // plain text is laid out incrementally, only the segments around the edit are laid out again
+        EditableTextLayout editableLayout = modernUI_MC$editableLayout;
+        if (editableLayout == null) {
+            modernUI_MC$editableLayout = editableLayout = new EditableTextLayout(engine);
+        }
+        final boolean incremental = editableLayout.setText(value);
+
+        final String viewText = incremental
+                ? value.substring(displayPos, editableLayout.breakText(displayPos, getInnerWidth()))
+                : engine.getStringSplitter().headByWidth(value.substring(displayPos), getInnerWidth(), Style.EMPTY);
         final int viewCursorPos = cursorPos - displayPos;
         final int clampedViewHighlightPos = Mth.clamp(highlightPos - displayPos, 0, viewText.length());
 
@@ -157,8 +169,13 @@ public abstract class MixinEditBox extends AbstractWidget {
                         matrix, bufferSource, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
             } else {
                 separate = false;
-                hori = engine.getTextRenderer().drawText(viewText, hori, baseY, color, true,
-                        matrix, bufferSource, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
+                if (incremental) {
+                    hori = editableLayout.drawText(displayPos, displayPos + viewText.length(), hori, baseY,
+                            color, true, matrix, bufferSource, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
+                } else {
+                    hori = engine.getTextRenderer().drawText(viewText, hori, baseY, color, true,
+                            matrix, bufferSource, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
+                }
             }
         } else {
             separate = false;
@@ -169,19 +186,12 @@ public abstract class MixinEditBox extends AbstractWidget {
         // XXX: BiDi is not supported here
         final float cursorX;
         if (cursorInRange) {
-            if (!separate && !viewText.isEmpty()) {
+            if (!separate && incremental) {
+                cursorX = baseX + editableLayout.getAdvance(displayPos, cursorPos);
+            } else if (!separate && !viewText.isEmpty()) {
                 TextLayout layout = engine.lookupVanillaLayout(viewText,
                         Style.EMPTY, TextLayoutEngine.COMPUTE_ADVANCES);
-                float curAdv = 0;
-                int stripIndex = 0;
-                for (int i = 0; i < viewCursorPos; i++) {
-                    if (viewText.charAt(i) == ChatFormatting.PREFIX_CODE) {
-                        i++;
-                        continue;
-                    }
-                    curAdv += layout.getAdvances()[stripIndex++];
-                }
-                cursorX = baseX + curAdv;
+                cursorX = baseX + layout.getAdvance(modernUI_MC$getStripIndex(viewText, viewCursorPos));
             } else {
                 cursorX = hori;
             }
@@ -210,17 +220,14 @@ public abstract class MixinEditBox extends AbstractWidget {
         if (viewCursorPos != clampedViewHighlightPos) {
             gr.flush();
 
-            TextLayout layout = engine.lookupVanillaLayout(viewText,
-                    Style.EMPTY, TextLayoutEngine.COMPUTE_ADVANCES);
             float startX = baseX;
             float endX = cursorX;
-            int stripIndex = 0;
-            for (int i = 0; i < clampedViewHighlightPos; i++) {
-                if (viewText.charAt(i) == ChatFormatting.PREFIX_CODE) {
-                    i++;
-                    continue;
-                }
-                startX += layout.getAdvances()[stripIndex++];
+            if (incremental) {
+                startX += editableLayout.getAdvance(displayPos, displayPos + clampedViewHighlightPos);
+            } else {
+                TextLayout layout = engine.lookupVanillaLayout(viewText,
+                        Style.EMPTY, TextLayoutEngine.COMPUTE_ADVANCES);
+                startX += layout.getAdvance(modernUI_MC$getStripIndex(viewText, clampedViewHighlightPos));
             }
 
             if (endX < startX) {
@@ -271,4 +278,18 @@ public abstract class MixinEditBox extends AbstractWidget {
         // unconditional
         ci.cancel();
     }
+
+    /**
+     * Converts the string index to strip index (without formatting codes).
+     */
+    @Unique
+    private static int modernUI_MC$getStripIndex(@Nonnull String text, int index) {
+        int stripIndex = index;
+        for (int i = text.indexOf(ChatFormatting.PREFIX_CODE); i >= 0 && i < index;
+             i = text.indexOf(ChatFormatting.PREFIX_CODE, i + 2)) {
+            // the code char is skipped together
+            stripIndex -= Math.min(2, index - i);
+        }
+        return stripIndex;
+    }
 }
@@ -39,6 +39,11 @@ public class MixinGameRenderer {
         TextRenderType.preloadShaders();
     }
 
+    @Inject(method = "render", at = @At("HEAD"))
+    private void renderStart(float partialTick, long frameTimeNanos, boolean renderLevel, CallbackInfo ci) {
+        TextLayoutEngine.getInstance().onRenderFrame();
+    }
+
     @Inject(method = "renderLevel", at = @At("HEAD"))
     private void renderLevelStart(float partialTick, long frameTimeNanos, PoseStack pStack, CallbackInfo ci) {
         TextLayoutEngine.sCurrentInWorldRendering = true;
@@ -46,6 +51,8 @@ public class MixinGameRenderer {
 
     @Inject(method = "renderLevel", at = @At("TAIL"))
     private void renderLevelEnd(float partialTick, long frameTimeNanos, PoseStack pStack, CallbackInfo ci) {
+        // in case the level renderer did not reach the end of batch
+        TextLayoutEngine.getInstance().getTextRenderer().getWorldTextBatcher().end(null);
         TextLayoutEngine.sCurrentInWorldRendering = false;
     }
 }
@@ -18,14 +18,11 @@
 
 package icyllis.modernui.mc.text.mixin;
 
-import icyllis.modernui.mc.text.ModernTextRenderer;
 import icyllis.modernui.mc.text.TextLayoutEngine;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.*;
 import net.minecraft.client.player.LocalPlayer;
 import net.minecraft.client.renderer.LightTexture;
-import net.minecraft.client.renderer.MultiBufferSource;
-import org.joml.Matrix4f;
 import org.objectweb.asm.Opcodes;
 import org.spongepowered.asm.mixin.*;
 import org.spongepowered.asm.mixin.injection.*;
@@ -65,24 +62,10 @@ public abstract class MixinIngameGui {
             float w = engine.getStringSplitter().measureText(s);
             float x = (screenWidth - w) / 2;
             float y = screenHeight - 31 - 4;
-            float offset = ModernTextRenderer.sOutlineOffset;
-            Matrix4f pose = gr.pose().last().pose();
-            // end batch for each draw to prevent transparency sorting
-            MultiBufferSource.BufferSource source = gr.bufferSource();
-            engine.getTextRenderer().drawText(s, x + offset, y, 0xff000000, false,
-                    pose, source, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
-            source.endBatch();
-            engine.getTextRenderer().drawText(s, x - offset, y, 0xff000000, false,
-                    pose, source, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
-            source.endBatch();
-            engine.getTextRenderer().drawText(s, x, y + offset, 0xff000000, false,
-                    pose, source, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
-            source.endBatch();
-            engine.getTextRenderer().drawText(s, x, y - offset, 0xff000000, false,
-                    pose, source, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
-            source.endBatch();
-            engine.getTextRenderer().drawText(s, x, y, 0xff80ff20, false,
-                    pose, source, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
+            // outline and text in one batch
+            engine.getTextRenderer().drawTextOutlined(s, x, y, 0xff80ff20, 0xff000000,
+                    gr.pose().last().pose(), gr.bufferSource(),
+                    Font.DisplayMode.NORMAL, LightTexture.FULL_BRIGHT);
             gr.flush();
         }
     }
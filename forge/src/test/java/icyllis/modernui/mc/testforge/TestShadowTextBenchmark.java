@@ -0,0 +1,154 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.testforge;
+
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import icyllis.modernui.mc.text.*;
+import net.minecraft.client.renderer.LightTexture;
+import net.minecraft.client.renderer.MultiBufferSource;
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Compares the two ways of drawing shadowed text through the real TextLayout methods,
+ * with stub glyphs and no render context. The legacy way calls drawText() for the shadow
+ * and again with a translated copy of the matrix for the foreground, the combined way calls
+ * drawTextWithShadow(), which resolves the glyphs once and applies the Z offset to vertices.
+ * Run with the GC profiler to see the allocation rate per operation. Single threaded, since
+ * TextLayout uses render thread scratch buffers.
+ */
+@Fork(2)
+@Threads(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class TestShadowTextBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TestShadowTextBenchmark.class.getSimpleName())
+                .shouldFailOnError(true).shouldDoGC(true)
+                .jvmArgs("-XX:+UseFMA")
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+
+    private final Matrix4f mMatrix = new Matrix4f().translate(12, 34, 0).scale(2);
+    private TextLayout mLayout;
+    private MultiBufferSource mSource;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        TestTextRendering.setupHeadless();
+        mLayout = TestTextRendering.makeLayout("The quick brown fox jumps over the lazy dog 0123456789",
+                CharacterStyle.IMPLICIT_COLOR_MASK);
+        final var consumer = new CountingConsumer(bh);
+        mSource = type -> consumer;
+    }
+
+    @Benchmark
+    public float twoPassWithMatrixCopy() {
+        final float offset = ModernTextRenderer.sShadowOffset;
+        mLayout.drawText(mMatrix, mSource, null, offset, offset, 63, 63, 63, 255,
+                true, TextRenderType.MODE_NORMAL, false, 0, LightTexture.FULL_BRIGHT);
+        Matrix4f matrix = new Matrix4f(mMatrix);
+        matrix.translate(ModernTextRenderer.SHADOW_OFFSET);
+        return mLayout.drawText(matrix, mSource, null, 0, 0, 255, 255, 255, 255,
+                false, TextRenderType.MODE_NORMAL, false, 0, LightTexture.FULL_BRIGHT);
+    }
+
+    @Benchmark
+    public float singlePassWithShadow() {
+        return mLayout.drawTextWithShadow(mMatrix, mSource, null, 0, 0, 255, 255, 255, 255,
+                ModernTextRenderer.sShadowOffset, TextRenderType.MODE_NORMAL, false, 0,
+                LightTexture.FULL_BRIGHT);
+    }
+
+    /**
+     * Consumes vertices into the blackhole, like a buffer builder without storage.
+     */
+    private static class CountingConsumer implements VertexConsumer {
+
+        private final Blackhole mBlackhole;
+
+        CountingConsumer(Blackhole bh) {
+            mBlackhole = bh;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer vertex(double x, double y, double z) {
+            mBlackhole.consume(x + y + z);
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer color(int r, int g, int b, int a) {
+            mBlackhole.consume(r | g << 8 | b << 16 | a << 24);
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer uv(float u, float v) {
+            mBlackhole.consume(u + v);
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer overlayCoords(int u, int v) {
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer uv2(int u, int v) {
+            mBlackhole.consume(u | v << 16);
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer normal(float x, float y, float z) {
+            return this;
+        }
+
+        @Override
+        public void endVertex() {
+        }
+
+        @Override
+        public void defaultColor(int r, int g, int b, int a) {
+        }
+
+        @Override
+        public void unsetDefaultColor() {
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.testforge;
+
+import com.mojang.blaze3d.font.SpaceProvider;
+import icyllis.modernui.graphics.text.*;
+import icyllis.modernui.mc.text.SpaceFont;
+import icyllis.modernui.mc.text.TextLayoutEngine;
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.resources.ResourceLocation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Compares the standard layout path and the fast ASCII layout path of the text engine,
+ * that is {@link TextLayoutEngine.AsciiTable#doLayoutRun}, which lays out plain ASCII vanilla
+ * strings without building the stripped text and bidi analysis. A space font that maps all printable
+ * ASCII characters is used, it behaves the same as bitmap fonts in layout, and it can be
+ * created without a render context.
+ */
+@Fork(2)
+@Threads(2)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class TestTextLayoutBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TestTextLayoutBenchmark.class.getSimpleName())
+                .shouldFailOnError(true).shouldDoGC(true)
+                .jvmArgs("-XX:+UseFMA")
+                .build())
+                .run();
+    }
+
+    public static final String TEXT = "The quick brown fox jumps over the lazy dog. [12:34] <Player> Hello, world!";
+
+    public static final FontCollection sCollection;
+    public static final TextLayoutEngine.AsciiTable sAsciiTable;
+
+    static {
+        var advances = new HashMap<Integer, Float>();
+        for (int ch = TextLayoutEngine.AsciiTable.FIRST_CHAR; ch <= TextLayoutEngine.AsciiTable.LAST_CHAR; ch++) {
+            advances.put(ch, ch == ' ' ? 4f : (float) (5 + (ch & 1)));
+        }
+        SpaceFont font = SpaceFont.create(new ResourceLocation("benchmark"),
+                new SpaceProvider.Definition(advances));
+        sCollection = new FontCollection(new FontFamily[]{new FontFamily(font)});
+        sAsciiTable = TextLayoutEngine.AsciiTable.create(sCollection, FontPaint.NORMAL, 16);
+    }
+
+    private final char[] mText = TEXT.toCharArray();
+    private final FontPaint mPaint = new FontPaint();
+    private final IntArrayList mGlyphs = new IntArrayList();
+    private final FloatArrayList mPositions = new FloatArrayList();
+    private final ByteArrayList mFontIndices = new ByteArrayList();
+    private final float[] mAdvances = new float[TEXT.length()];
+
+    @Setup
+    public void setup() {
+        mPaint.setFont(sCollection);
+        mPaint.setFontStyle(FontPaint.NORMAL);
+        mPaint.setFontSize(16);
+        mPaint.setLocale(Locale.ROOT);
+    }
+
+    @Benchmark
+    public void standardLayout(Blackhole bh) {
+        mGlyphs.clear();
+        mPositions.clear();
+        mFontIndices.clear();
+        float advance = ShapedText.doLayoutRun(
+                mText, 0, mText.length, 0, mText.length,
+                false, mPaint, 0,
+                mAdvances, 0,
+                mGlyphs, mPositions,
+                mFontIndices, f -> (byte) 0,
+                null, null
+        );
+        bh.consume(advance);
+        bh.consume(mGlyphs);
+    }
+
+    @Benchmark
+    public void asciiTableLayout(Blackhole bh) {
+        mGlyphs.clear();
+        mPositions.clear();
+        mFontIndices.clear();
+        final var table = sAsciiTable;
+        float advance = 0;
+        if (table.canLayout(mText, 0, mText.length)) {
+            advance = table.doLayoutRun(
+                    mText, 0, mText.length,
+                    mAdvances, 0,
+                    mGlyphs, mPositions,
+                    mFontIndices, f -> (byte) 0
+            );
+        }
+        bh.consume(advance);
+        bh.consume(mGlyphs);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.RenderType;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * A buffer source that records vertices instead of uploading them, so that text rendering
+ * can be verified without a GL context. Like {@link MultiBufferSource.BufferSource}, requesting
+ * a different render type ends the current batch, unless the type is fixed, then vertices are
+ * appended to the batch of that type until {@link #endBatch()}. Each batch is a draw call.
+ */
+public class RecordingBufferSource implements MultiBufferSource {
+
+    /**
+     * Floats per vertex: x, y, z, r, g, b, a, u, v, overlay u, overlay v, light u, light v.
+     */
+    public static final int VERTEX_SIZE = 13;
+
+    private final Set<RenderType> mFixedTypes = new HashSet<>();
+    private final Map<RenderType, Batch> mFixedBatches = new LinkedHashMap<>();
+    private final List<Batch> mBatches = new ArrayList<>();
+
+    private Batch mCurrent;
+
+    /**
+     * Make vertices of the given type batched until {@link #endBatch()}, like fixed buffers.
+     */
+    public void addFixedType(@Nonnull RenderType type) {
+        mFixedTypes.add(type);
+    }
+
+    @Nonnull
+    @Override
+    public VertexConsumer getBuffer(@Nonnull RenderType type) {
+        if (mFixedTypes.contains(type)) {
+            return mFixedBatches.computeIfAbsent(type, Batch::new);
+        }
+        if (mCurrent == null || mCurrent.mType != type) {
+            mCurrent = new Batch(type);
+            mBatches.add(mCurrent);
+        }
+        return mCurrent;
+    }
+
+    /**
+     * End the current batch and all fixed batches, fixed batches are drawn last.
+     */
+    public void endBatch() {
+        mCurrent = null;
+        mBatches.addAll(mFixedBatches.values());
+        mFixedBatches.clear();
+    }
+
+    /**
+     * @return the ended and the current batches in draw order
+     */
+    @Nonnull
+    public List<Batch> getBatches() {
+        return mBatches;
+    }
+
+    public int getVertexCount() {
+        int count = 0;
+        for (Batch batch : mBatches) {
+            count += batch.getVertexCount();
+        }
+        return count;
+    }
+
+    public void clear() {
+        mCurrent = null;
+        mFixedBatches.clear();
+        mBatches.clear();
+    }
+
+    /**
+     * Write all batches as text for golden comparisons. Render types are numbered by
+     * first use, since text render types of different textures have the same name.
+     */
+    @Nonnull
+    public String dump() {
+        var sb = new StringBuilder();
+        var typeIds = new IdentityHashMap<RenderType, Integer>();
+        for (Batch batch : mBatches) {
+            int id = typeIds.computeIfAbsent(batch.mType, __ -> typeIds.size());
+            sb.append("batch ").append(batch.mType).append(" #").append(id)
+                    .append(", vertices=").append(batch.getVertexCount()).append('\n');
+            final float[] data = batch.mData;
+            for (int i = 0, e = batch.mSize; i < e; i += VERTEX_SIZE) {
+                sb.append(String.format(Locale.ROOT,
+                        "  pos(%.4f, %.4f, %.4f) color(%d, %d, %d, %d) uv(%.5f, %.5f) overlay(%d, %d) light(%d, %d)\n",
+                        data[i], data[i + 1], data[i + 2],
+                        (int) data[i + 3], (int) data[i + 4], (int) data[i + 5], (int) data[i + 6],
+                        data[i + 7], data[i + 8],
+                        (int) data[i + 9], (int) data[i + 10],
+                        (int) data[i + 11], (int) data[i + 12]));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Vertices of a render type in one draw call.
+     */
+    public static class Batch implements VertexConsumer {
+
+        private final RenderType mType;
+
+        private float[] mData = new float[VERTEX_SIZE * 64];
+        private int mSize;
+
+        // the vertex being built
+        private final float[] mVertex = new float[VERTEX_SIZE];
+
+        Batch(RenderType type) {
+            mType = type;
+        }
+
+        @Nonnull
+        public RenderType getType() {
+            return mType;
+        }
+
+        public int getVertexCount() {
+            return mSize / VERTEX_SIZE;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer vertex(double x, double y, double z) {
+            mVertex[0] = (float) x;
+            mVertex[1] = (float) y;
+            mVertex[2] = (float) z;
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer color(int r, int g, int b, int a) {
+            mVertex[3] = r;
+            mVertex[4] = g;
+            mVertex[5] = b;
+            mVertex[6] = a;
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer uv(float u, float v) {
+            mVertex[7] = u;
+            mVertex[8] = v;
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer overlayCoords(int u, int v) {
+            mVertex[9] = u;
+            mVertex[10] = v;
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer uv2(int u, int v) {
+            mVertex[11] = u;
+            mVertex[12] = v;
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public VertexConsumer normal(float x, float y, float z) {
+            return this;
+        }
+
+        @Override
+        public void endVertex() {
+            if (mSize + VERTEX_SIZE > mData.length) {
+                mData = Arrays.copyOf(mData, mData.length << 1);
+            }
+            System.arraycopy(mVertex, 0, mData, mSize, VERTEX_SIZE);
+            mSize += VERTEX_SIZE;
+            Arrays.fill(mVertex, 0);
+        }
+
+        @Override
+        public void defaultColor(int r, int g, int b, int a) {
+        }
+
+        @Override
+        public void unsetDefaultColor() {
+        }
+    }
+}
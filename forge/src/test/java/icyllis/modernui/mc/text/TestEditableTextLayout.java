@@ -0,0 +1,126 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import static icyllis.modernui.ModernUI.LOGGER;
+
+/**
+ * Edits text at the start, middle and end of an {@link EditableTextLayout} and checks the
+ * segment boundaries against a layout created from scratch, no GL context is required.
+ * The exit code is non-zero if any check fails.
+ */
+public class TestEditableTextLayout {
+
+    public static final Marker MARKER = MarkerManager.getMarker("Test");
+
+    private static int sFailures;
+
+    public static void main(String[] args) {
+        final String base = "the quick brown fox jumps";
+        final String[][] edits = {
+                // insert
+                {base, "a " + base},
+                {base, "the quick red brown fox jumps"},
+                {base, base + " over"},
+                {base, base + "s"},
+                // delete
+                {base, "quick brown fox jumps"},
+                {base, "the quick fox jumps"},
+                {base, "the quick brown fox"},
+                {base, "the quick brown fox jump"},
+                // replace
+                {base, "a quick brown fox jumps"},
+                {base, "the slow brown fox jumps"},
+                {base, "the quick brown fox sleeps"},
+                {base, "xyz"},
+                // within a segment
+                {base, "the quack brown fox jumps"},
+                {"a", "ab"},
+                {"ab", "a"},
+        };
+        for (String[] edit : edits) {
+            var layout = newLayout();
+            check(layout.setText(edit[0]), "not segmented: " + edit[0]);
+            checkBoundaries(layout, edit[0]);
+            check(layout.setText(edit[1]), "not segmented: " + edit[1]);
+            checkBoundaries(layout, edit[1]);
+            // and back
+            check(layout.setText(edit[0]), "not segmented: " + edit[0]);
+            checkBoundaries(layout, edit[0]);
+        }
+
+        // typing char by char, then deleting from the end and the start
+        var layout = newLayout();
+        for (int i = 1; i <= base.length(); i++) {
+            layout.setText(base.substring(0, i));
+            checkBoundaries(layout, base.substring(0, i));
+        }
+        for (int i = base.length() - 1; i > 0; i--) {
+            layout.setText(base.substring(0, i));
+            checkBoundaries(layout, base.substring(0, i));
+        }
+        layout.setText("");
+        for (int i = 0; i < base.length(); i++) {
+            layout.setText(base.substring(i));
+            checkBoundaries(layout, base.substring(i));
+        }
+
+        LOGGER.info(MARKER, "Editable text layout checks finished, {} failure(s)", sFailures);
+        System.exit(sFailures > 0 ? 1 : 0);
+    }
+
+    private static EditableTextLayout newLayout() {
+        return new EditableTextLayout(segment ->
+                TestTextRendering.makeLayout(segment, CharacterStyle.IMPLICIT_COLOR_MASK));
+    }
+
+    private static void checkBoundaries(EditableTextLayout layout, String text) {
+        final int count = layout.getSegmentCount();
+        check(layout.getSegmentStart(0) == 0,
+                "first boundary is not 0 for '" + text + "'");
+        check(layout.getSegmentStart(count) == text.length(),
+                "last boundary is not the text length for '" + text + "'");
+        for (int i = 0; i < count; i++) {
+            check(layout.getSegmentStart(i) < layout.getSegmentStart(i + 1),
+                    "empty segment " + i + " for '" + text + "'");
+        }
+        // incremental result equals the one from scratch
+        var expected = newLayout();
+        expected.setText(text);
+        boolean same = expected.getSegmentCount() == count;
+        for (int i = 0; same && i <= count; i++) {
+            same = expected.getSegmentStart(i) == layout.getSegmentStart(i);
+        }
+        check(same, "boundaries differ from a new layout for '" + text + "'");
+        for (int i = 0; i <= text.length(); i++) {
+            check(layout.getXForOffset(i) == i * TestTextRendering.ADVANCE,
+                    "wrong offset at " + i + " for '" + text + "'");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            sFailures++;
+            LOGGER.error(MARKER, "FAILED: {}", message);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2023 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import icyllis.modernui.graphics.font.BakedGlyph;
+import icyllis.modernui.graphics.text.Font;
+import net.minecraft.client.renderer.LightTexture;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.joml.Matrix4f;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static icyllis.modernui.ModernUI.LOGGER;
+
+/**
+ * Draws text layouts with stub glyphs into a {@link RecordingBufferSource} and compares the
+ * vertices with golden files, no GL context is required. Run from the forge project directory,
+ * with {@code -Dmodernui.updateGolden=true} to write the golden files after an intended
+ * change, then review and commit them. The exit code is non-zero if any check fails or a
+ * golden file is missing, the actual output is written next to the golden file with the
+ * ".actual" suffix.
+ */
+public class TestTextRendering {
+
+    public static final Marker MARKER = MarkerManager.getMarker("Test");
+
+    public static final int RES_LEVEL = 2;
+    public static final float ADVANCE = 6;
+    // stub atlas, glyphs are never uploaded
+    public static final int TEXTURE = 42;
+
+    private static final Path GOLDEN_DIR = Path.of(System.getProperty("modernui.goldenDir",
+            "src/test/resources/golden/text"));
+    private static final boolean UPDATE_GOLDEN = Boolean.getBoolean("modernui.updateGolden");
+
+    private static int sFailures;
+
+    /**
+     * Make layouts drawable without a GL context and Minecraft, see {@link #makeLayout}.
+     */
+    public static void setupHeadless() {
+        TextLayout.sStubStandardTexture = TEXTURE;
+        // no fixed buffers of Minecraft, no shaders
+        TextLayoutEngine.sUseTextShadersInWorld = false;
+        TextLayoutEngine.sCurrentInWorldRendering = false;
+    }
+
+    public static void main(String[] args) throws IOException {
+        setupHeadless();
+
+        final int implicit = CharacterStyle.IMPLICIT_COLOR_MASK;
+        final TextLayout plain = makeLayout("Hello", implicit);
+        final TextLayout styled = makeLayout("Styled",
+                0x55FFFF, implicit | CharacterStyle.UNDERLINE_MASK, implicit | CharacterStyle.UNDERLINE_MASK,
+                0xFF5555 | CharacterStyle.STRIKETHROUGH_MASK, implicit, implicit);
+        final Matrix4f matrix = new Matrix4f().translate(10, 20, 0);
+        final int light = LightTexture.FULL_BRIGHT;
+
+        golden("plain", source -> plain.drawText(matrix, source, null, 0, 0,
+                255, 255, 255, 255, false, TextRenderType.MODE_NORMAL, false, 0, light));
+        golden("styled", source -> styled.drawText(matrix, source, null, 0, 0,
+                255, 255, 255, 255, false, TextRenderType.MODE_NORMAL, false, 0, light));
+        golden("shadow", source -> styled.drawTextWithShadow(matrix, source, null, 0, 0,
+                255, 255, 255, 255, ModernTextRenderer.sShadowOffset,
+                TextRenderType.MODE_NORMAL, false, 0, light));
+        golden("sdf", source -> plain.drawText(matrix, source, null, 0, 0,
+                255, 255, 255, 255, false, TextRenderType.MODE_SDF_FILL, false, 0, light));
+        golden("see_through", source -> plain.drawText(matrix, source, null, 0, 0,
+                255, 255, 255, 255, false, TextRenderType.MODE_SEE_THROUGH, false, 0x40000000, light));
+        golden("outline", source -> plain.drawTextOutline(matrix, source, null, 0, 0,
+                0, 0, 0, 255, light));
+        golden("fill_stroke", source -> plain.drawTextFillStroke(matrix, source, null, 0, 0,
+                255, 255, 255, 255, 0xFF000000, light));
+        golden("outlined", source -> plain.drawTextWithOutline(matrix, source, null, 0, 0,
+                128, 255, 32, 255, 0xFF000000, ModernTextRenderer.sOutlineOffset,
+                TextRenderType.MODE_NORMAL, light));
+
+        // batching, a single atlas is a single draw
+        var source = new RecordingBufferSource();
+        plain.drawTextWithShadow(matrix, source, null, 0, 0, 255, 255, 255, 255,
+                ModernTextRenderer.sShadowOffset, TextRenderType.MODE_NORMAL, false, 0, light);
+        source.endBatch();
+        check(source.getBatches().size() == 1, "shadow text is not one draw");
+        check(source.getVertexCount() == 2 * 5 * 4, "shadow text vertex count " + source.getVertexCount());
+
+        source.clear();
+        plain.drawTextWithOutline(matrix, source, null, 0, 0, 255, 255, 255, 255,
+                0xFF000000, ModernTextRenderer.sOutlineOffset, TextRenderType.MODE_NORMAL, light);
+        source.endBatch();
+        check(source.getBatches().size() == 1, "outlined text is not one draw");
+        check(source.getVertexCount() == 5 * 5 * 4, "outlined text vertex count " + source.getVertexCount());
+
+        // the shadow pass of drawText() is the same as drawTextWithShadow()
+        source.clear();
+        final float shadowOffset = ModernTextRenderer.sShadowOffset;
+        styled.drawText(matrix, source, null, shadowOffset, shadowOffset, 63, 63, 63, 255,
+                true, TextRenderType.MODE_NORMAL, false, 0, light);
+        styled.drawText(new Matrix4f(matrix).translate(ModernTextRenderer.SHADOW_OFFSET), source, null,
+                0, 0, 255, 255, 255, 255, false, TextRenderType.MODE_NORMAL, false, 0, light);
+        source.endBatch();
+        final String separate = source.dump();
+        source.clear();
+        styled.drawTextWithShadow(matrix, source, null, 0, 0, 255, 255, 255, 255,
+                shadowOffset, TextRenderType.MODE_NORMAL, false, 0, light);
+        source.endBatch();
+        check(separate.equals(source.dump()), "drawText() shadow differs from drawTextWithShadow()");
+
+        source.clear();
+        TextLayout.EMPTY.drawTextWithShadow(matrix, source, null, 0, 0, 255, 255, 255, 255,
+                ModernTextRenderer.sShadowOffset, TextRenderType.MODE_NORMAL, false, 0x40000000, light);
+        source.endBatch();
+        check(source.getVertexCount() == 0, "empty layout draws vertices");
+
+        LOGGER.info(MARKER, "Text rendering checks finished, {} failure(s)", sFailures);
+        System.exit(sFailures > 0 ? 1 : 0);
+    }
+
+    /**
+     * Make a left-to-right layout of the given chars, each glyph has the same advance
+     * and a distinct atlas region.
+     *
+     * @param flags the flags of each char, the last one is repeated
+     */
+    @Nonnull
+    public static TextLayout makeLayout(@Nonnull String text, int... flags) {
+        final int n = text.length();
+        final char[] textBuf = text.toCharArray();
+        final int[] glyphs = new int[n];
+        final float[] positions = new float[n * 2];
+        final float[] advances = new float[n];
+        final int[] glyphFlags = new int[n];
+        final BakedGlyph[] bakedGlyphs = new BakedGlyph[n];
+        boolean hasEffect = false;
+        for (int i = 0; i < n; i++) {
+            final char c = textBuf[i];
+            glyphs[i] = c;
+            positions[i << 1] = i * ADVANCE;
+            advances[i] = ADVANCE;
+            glyphFlags[i] = flags[Math.min(i, flags.length - 1)];
+            hasEffect |= (glyphFlags[i] & CharacterStyle.EFFECT_MASK) != 0;
+            BakedGlyph glyph = new BakedGlyph();
+            glyph.x = 0;
+            glyph.y = (short) (-7 * RES_LEVEL);
+            glyph.width = (short) (5 * RES_LEVEL);
+            glyph.height = (short) (9 * RES_LEVEL);
+            glyph.u1 = (c & 15) / 16f;
+            glyph.v1 = (c >> 4 & 15) / 16f;
+            glyph.u2 = glyph.u1 + 1 / 32f;
+            glyph.v2 = glyph.v1 + 1 / 32f;
+            bakedGlyphs[i] = glyph;
+        }
+        var layout = new TextLayout(textBuf, glyphs, positions, null, new Font[1], advances,
+                glyphFlags, null, n * ADVANCE, hasEffect, false, RES_LEVEL, 0,
+                null, null, null, false, null);
+        layout.setBakedGlyphs(bakedGlyphs);
+        return layout;
+    }
+
+    private static void golden(String name, Consumer<RecordingBufferSource> draw) throws IOException {
+        var source = new RecordingBufferSource();
+        draw.accept(source);
+        source.endBatch();
+        final String actual = source.dump();
+        final Path file = GOLDEN_DIR.resolve(name + ".txt");
+        final Path actualFile = GOLDEN_DIR.resolve(name + ".txt.actual");
+        if (UPDATE_GOLDEN) {
+            Files.createDirectories(GOLDEN_DIR);
+            Files.writeString(file, actual);
+            Files.deleteIfExists(actualFile);
+            LOGGER.info(MARKER, "Wrote golden {}", file);
+            return;
+        }
+        if (!Files.exists(file)) {
+            Files.createDirectories(GOLDEN_DIR);
+            Files.writeString(actualFile, actual);
+            check(false, name + " has no golden file " + file + ", see " + actualFile);
+            return;
+        }
+        final String expected = Files.readString(file).replace("\r\n", "\n");
+        if (expected.equals(actual)) {
+            Files.deleteIfExists(actualFile);
+            return;
+        }
+        Files.writeString(actualFile, actual);
+        final String[] expectedLines = expected.split("\n");
+        final String[] actualLines = actual.split("\n");
+        int line = 0;
+        while (line < expectedLines.length && line < actualLines.length &&
+                expectedLines[line].equals(actualLines[line])) {
+            line++;
+        }
+        check(false, name + " differs from golden at line " + (line + 1) + ", see " + actualFile);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            sFailures++;
+            LOGGER.error(MARKER, "FAILED: {}", message);
+        }
+    }
+}